@@ -0,0 +1,37 @@
+package com.brotherhoodgames.pixen.mod;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+/** The mod's per-world server settings, stored in {@code serverconfig/pixen-server.toml}. */
+public final class PixenConfig {
+  public static final ForgeConfigSpec SERVER_SPEC;
+
+  /** The longest the server may spend placing generated tree blocks in a single tick. */
+  public static final ForgeConfigSpec.LongValue TREE_PLACEMENT_BUDGET_NANOS;
+
+  /** The most memory that recently generated trees may be kept in, so they can be placed again. */
+  public static final ForgeConfigSpec.LongValue TREE_TEMPLATE_CACHE_BYTES;
+
+  static {
+    ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+    builder.push("trees");
+    TREE_PLACEMENT_BUDGET_NANOS =
+        builder
+            .comment(
+                "The time, in nanoseconds, the server may spend placing the blocks of generated",
+                "trees in each tick. Larger trees appear over as many ticks as they need.")
+            .defineInRange("placementBudgetNanos", 5_000_000L, 100_000L, 50_000_000L);
+    TREE_TEMPLATE_CACHE_BYTES =
+        builder
+            .comment(
+                "The memory, in bytes, used to remember recently generated trees, so that growing",
+                "the same tree (same seed) again skips generation. 0 disables the cache.")
+            .defineInRange("templateCacheBytes", 64L << 20, 0L, 4L << 30);
+    builder.pop();
+
+    SERVER_SPEC = builder.build();
+  }
+
+  private PixenConfig() {}
+}
@@ -4,8 +4,7 @@ import static org.lwjgl.glfw.GLFW.GLFW_KEY_O;
 
 import com.brotherhoodgames.pixen.mod.block.ModBlocks;
 import com.brotherhoodgames.pixen.mod.item.ModItems;
-import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator;
-import com.google.common.collect.ImmutableMap;
+import com.brotherhoodgames.pixen.mod.world.ModStructures;
 import com.mojang.blaze3d.platform.InputConstants;
 import com.mojang.logging.LogUtils;
 import java.util.Optional;
@@ -13,12 +12,8 @@ import javax.annotation.Nonnull;
 import net.minecraft.client.Camera;
 import net.minecraft.client.KeyMapping;
 import net.minecraft.client.Minecraft;
-import net.minecraft.core.BlockPos;
-import net.minecraft.util.RandomSource;
 import net.minecraft.world.item.CreativeModeTabs;
 import net.minecraft.world.level.ClipContext;
-import net.minecraft.world.level.block.Blocks;
-import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.phys.BlockHitResult;
 import net.minecraft.world.phys.HitResult;
 import net.minecraft.world.phys.Vec3;
@@ -30,7 +25,9 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.CreativeModeTabEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
@@ -56,6 +53,9 @@ public class PixenMod {
 
     ModItems.register(modEventBus);
     ModBlocks.register(modEventBus);
+    ModStructures.register(modEventBus);
+
+    ModLoadingContext.get().registerConfig(ModConfig.Type.SERVER, PixenConfig.SERVER_SPEC);
 
     modEventBus.addListener(this::commonSetup);
     MinecraftForge.EVENT_BUS.register(this);
@@ -89,25 +89,9 @@ public class PixenMod {
 
   @Mod.EventBusSubscriber(modid = MOD_ID, value = Dist.CLIENT)
   public static class ClientInputEvents {
-    private static final ImmutableMap<GiantRedwoodGenerator.TreeBlock, BlockState> TREE_BLOCKS =
-        ImmutableMap.<GiantRedwoodGenerator.TreeBlock, BlockState>builder()
-            .put(
-                GiantRedwoodGenerator.TreeBlock.WOOD,
-                Blocks.STRIPPED_SPRUCE_WOOD.defaultBlockState())
-            .put(GiantRedwoodGenerator.TreeBlock.BARK, Blocks.SPRUCE_WOOD.defaultBlockState())
-            .put(GiantRedwoodGenerator.TreeBlock.LOG, Blocks.SPRUCE_WOOD.defaultBlockState())
-            .put(GiantRedwoodGenerator.TreeBlock.LEAVES, Blocks.OAK_LEAVES.defaultBlockState())
-            .put(
-                GiantRedwoodGenerator.TreeBlock.DEBUG_LOG_SPLIT,
-                Blocks.RED_WOOL.defaultBlockState())
-            .put(
-                GiantRedwoodGenerator.TreeBlock.DEBUG_LOG_TURN,
-                Blocks.BLUE_WOOL.defaultBlockState())
-            .build();
-
     @SubscribeEvent
     public static void onKeyInput(@Nonnull InputEvent.Key e) {
-      if (TEST_TREE_MAPPING.consumeClick()) {
+      if (TEST_TREE_MAPPING.consumeClick() && mc.player != null) {
         Camera c = mc.gameRenderer.getMainCamera();
         Optional.ofNullable(mc.level)
             .map(
@@ -122,19 +106,12 @@ public class PixenMod {
             .filter(r -> r.getType() != HitResult.Type.MISS)
             .map(BlockHitResult::getBlockPos)
             .ifPresent(
+                // The tree is generated by the server, off its game thread; see ModCommands
                 where ->
-                    new GiantRedwoodGenerator()
-                        .generate(
-                            where.getX(),
-                            where.getY(),
-                            where.getZ(),
-                            RandomSource.createThreadSafe(),
-                            (b, x, y, z) ->
-                                mc.level.setBlock(
-                                    new BlockPos(x, y, z),
-                                    Optional.ofNullable(TREE_BLOCKS.get(b.actual()))
-                                        .orElse(Blocks.SPRUCE_WOOD.defaultBlockState()),
-                                    3)));
+                    mc.player.connection.sendCommand(
+                        String.format(
+                            "%s redwood %d %d %d",
+                            MOD_ID, where.getX(), where.getY(), where.getZ())));
       }
     }
   }
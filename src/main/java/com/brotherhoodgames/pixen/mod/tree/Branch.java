@@ -6,6 +6,7 @@ import static com.brotherhoodgames.pixen.mod.util.stats.Pdf.rangeFrom;
 import com.brotherhoodgames.pixen.mod.util.Randomness;
 import com.brotherhoodgames.pixen.mod.util.stats.Pdf;
 import com.brotherhoodgames.pixen.mod.util.stats.RandomVariable;
+import java.util.function.DoubleUnaryOperator;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -19,6 +20,9 @@ import org.jetbrains.annotations.NotNull;
 @Data
 @Builder(builderClassName = "Builder")
 /*package*/ class Branch implements IterativeGenerator {
+  private static final int MAX_AVOID_DISTANCE = 8;
+  private static final double MAX_AVOID_DISTANCE_SQR = MAX_AVOID_DISTANCE * MAX_AVOID_DISTANCE;
+
   final @Nullable Branch parent;
   double currentLength;
   double currentSegmentLength;
@@ -26,6 +30,11 @@ import org.jetbrains.annotations.NotNull;
   double currentThickness;
   @Nonnull Vec3 growthDirection;
   @Nonnull BlockPos currentLocation;
+  // The split probability function over this branch's length; built on the first iteration
+  @Nullable DoubleUnaryOperator splitProbability;
+  // Walks the tree's clusters for clustered avoidance; created on the first turn that needs it,
+  // and never shared with splits, which may grow on other threads
+  @Nullable TreeSpace.ClusterCursor clusters;
 
   final double targetLength;
   final double outwardBias;
@@ -39,36 +48,39 @@ import org.jetbrains.annotations.NotNull;
   final @Nonnull Pdf splitProbabilityFunction;
   final @Nonnull RandomVariable segmentLengthFunction;
   final @Nonnull TurnSelectionFunction turnSelectionFunction;
+  final @Nonnull RandomSource random;
+  final @Nonnull Canopy canopy;
 
   @Override
   public @Nonnull Stream<IterativeGenerator> iterate(
-      @Nonnull RandomSource random,
       @Nonnull GiantRedwoodGenerationParameters parameters,
-      @Nonnull TreeSpace tree) {
-    tree.setIfEmpty(currentLocation, GiantRedwoodGenerator.TreeBlock.LOG);
+      @Nonnull TreeSpace tree,
+      @Nonnull TreeWrites writes) {
+    writes.setIfEmpty(currentLocation, GiantRedwoodGenerator.TreeBlock.LOG);
 
     if (!advance(tree)) {
       // This branch is finished
-      return LeafNode.initializeAndStreamLeafNodes(random, currentLocation, parameters);
+      LeafNode.initializeLeafNodes(random, currentLocation, parameters, canopy);
+      return Stream.empty();
     }
 
     Stream.Builder<IterativeGenerator> remainingGenerators =
         Stream.<IterativeGenerator>builder().add(this);
-    double splitP =
-        splitProbabilityScalar
-            * splitProbabilityFunction
-                .pdfToFunction(domainFrom(0).to(targetLength), rangeFrom(0).to(1))
-                .apply(currentLength);
+    if (splitProbability == null)
+      splitProbability =
+          splitProbabilityFunction.pdfToOperator(
+              domainFrom(0).to(targetLength), rangeFrom(0).to(1));
+    double splitP = splitProbabilityScalar * splitProbability.applyAsDouble(currentLength);
 
     if (random.nextDouble() <= splitP) {
-      tree.set(currentLocation, GiantRedwoodGenerator.TreeBlock.DEBUG_LOG_SPLIT);
+      writes.set(currentLocation, GiantRedwoodGenerator.TreeBlock.DEBUG_LOG_SPLIT);
       remainingGenerators.add(initializeSplit(random));
       if (random.nextDouble() < parameters.leafClusterAtSplitProbability.sample(random))
-        LeafNode.initializeLeafNodes(random, currentLocation, parameters, remainingGenerators);
+        LeafNode.initializeLeafNodes(random, currentLocation, parameters, canopy);
     } else if (currentSegmentLength >= targetSegmentLength) {
-      tree.set(currentLocation, GiantRedwoodGenerator.TreeBlock.DEBUG_LOG_TURN);
+      writes.set(currentLocation, GiantRedwoodGenerator.TreeBlock.DEBUG_LOG_TURN);
 
-      Vec3 turnBias = calculateTurnBias(random, tree);
+      Vec3 turnBias = calculateTurnBias(random, parameters, tree);
       growthDirection =
           turnSelectionFunction.turn(random, currentLocation, growthDirection, turnBias);
 
@@ -127,7 +139,10 @@ import org.jetbrains.annotations.NotNull;
   }
 
   @NotNull
-  private Vec3 calculateTurnBias(@Nonnull RandomSource random, @Nonnull TreeSpace tree) {
+  private Vec3 calculateTurnBias(
+      @Nonnull RandomSource random,
+      @Nonnull GiantRedwoodGenerationParameters parameters,
+      @Nonnull TreeSpace tree) {
     // The outward bias is a vector that will return the branch to the position it *should* be if
     // it had travelled straight outwards along the base direction vector. The XZ direction is
     // weighted independently of the Y direction.
@@ -146,42 +161,76 @@ import org.jetbrains.annotations.NotNull;
     // The avoidance bias is a vector that will move the branch's growth the farthest away from all
     // neighboring blocks. It's calculated by producing a "push" vector for each block nearby the
     // current location whose length is inversely related to the square of its distance, and then
-    // summing all push vectors.
-    final int MAX_AVOID_DISTANCE = 8;
-    final double MAX_DISTANCE_SQR = MAX_AVOID_DISTANCE * MAX_AVOID_DISTANCE;
-    final Vec3 center = currentLocation.getCenter();
-    Vec3 avoidBias =
-        tree.cell(currentLocation)
-            .streamCellEnvelope(MAX_AVOID_DISTANCE * 2)
-            .filter(
-                // Only consider cells with data, are within the distance radius, and that are
-                // farther away from the trunk than the current location. We're ignoring blocks that
-                // are closer to the trunk because the outward bias already effectively considers
-                // that and including them in this bias would skew more strongly towards straight
-                // outward growth.
-                cell ->
-                    cell.isFilled()
-                        && cell.distanceToSqr(basePosition)
-                            > currentLocation.getCenter().distanceToSqr(basePosition)
-                        && cell.distanceToSqr(currentLocation) < MAX_DISTANCE_SQR)
-            .map(
-                cell -> {
-                  // We're using a random contained point to increase the chances of an upward or
-                  // downward push when all entities are on the same plane as the current location.
-                  Vec3 point = cell.randomContainedTreeCoordinate(random);
-                  Vec3 force = point.vectorTo(center);
-                  double distanceSqr = force.lengthSqr();
-                  return force.normalize().scale(MAX_DISTANCE_SQR - distanceSqr);
-                })
-            .reduce(Vec3.ZERO, Vec3::add)
-            .normalize()
-            .scale(this.avoidBias);
+    // summing all push vectors. Branches only see the blocks placed before any of them started
+    // growing; each other's blocks land once they've all finished, which keeps growth the same
+    // from the same seed whatever the scheduling.
+    Vec3 avoidance =
+        switch (parameters.branchAvoidanceMode) {
+          case EXACT -> calculateExactAvoidance(tree);
+          case MOMENT_FIELD -> calculateClusteredAvoidance(tree);
+        };
+    Vec3 avoidBias = avoidance.normalize().scale(this.avoidBias);
 
     // We leave the overall turn bias de-normalized to accommodate turn algorithms that take the
     // strength of the bias into account.
     return outwardBias.add(continueBias).add(avoidBias);
   }
 
+  private @Nonnull Vec3 calculateExactAvoidance(@Nonnull TreeSpace tree) {
+    final Vec3 center = currentLocation.getCenter();
+    return tree.cell(currentLocation)
+        .streamCellEnvelope(MAX_AVOID_DISTANCE * 2)
+        .filter(
+            // Only consider cells with data, are within the distance radius, and that are farther
+            // away from the trunk than the current location. We're ignoring blocks that are closer
+            // to the trunk because the outward bias already effectively considers that and
+            // including them in this bias would skew more strongly towards straight outward growth.
+            cell ->
+                cell.isFilled()
+                    && cell.distanceToSqr(basePosition) > center.distanceToSqr(basePosition)
+                    && cell.distanceToSqr(currentLocation) < MAX_AVOID_DISTANCE_SQR)
+        .map(
+            cell -> {
+              // We're using a random contained point to increase the chances of an upward or
+              // downward push when all entities are on the same plane as the current location. The
+              // point only depends on the cell, so the push doesn't depend on the order in which
+              // the cells are visited.
+              Vec3 point = cell.positionalContainedTreeCoordinate();
+              Vec3 force = point.vectorTo(center);
+              double distanceSqr = force.lengthSqr();
+              return force.normalize().scale(MAX_AVOID_DISTANCE_SQR - distanceSqr);
+            })
+        .reduce(Vec3.ZERO, Vec3::add);
+  }
+
+  /**
+   * Approximates {@link #calculateExactAvoidance} from the tree's clusters of filled cells: each
+   * cluster that passes the same filters pushes as hard as its cells would if they were all at its
+   * centroid.
+   */
+  private @Nonnull Vec3 calculateClusteredAvoidance(@Nonnull TreeSpace tree) {
+    final Vec3 center = currentLocation.getCenter();
+    final double centerToBaseSqr = center.distanceToSqr(basePosition);
+    if (clusters == null) clusters = tree.clusterCursor();
+
+    double pushX = 0, pushY = 0, pushZ = 0;
+    for (clusters.moveTo(currentLocation, MAX_AVOID_DISTANCE); clusters.next(); ) {
+      double x = clusters.getCentroidX(), y = clusters.getCentroidY(), z = clusters.getCentroidZ();
+      double fx = center.x - x, fy = center.y - y, fz = center.z - z;
+      double distanceSqr = fx * fx + fy * fy + fz * fz;
+      if (distanceSqr >= MAX_AVOID_DISTANCE_SQR
+          || basePosition.distanceToSqr(x, y, z) <= centerToBaseSqr
+          || distanceSqr == 0) continue;
+
+      double scale =
+          clusters.getCount() * (MAX_AVOID_DISTANCE_SQR - distanceSqr) / Math.sqrt(distanceSqr);
+      pushX += fx * scale;
+      pushY += fy * scale;
+      pushZ += fz * scale;
+    }
+    return new Vec3(pushX, pushY, pushZ);
+  }
+
   private boolean advance(@NotNull TreeSpace tree) {
     Vec3 position =
         new Vec3(currentLocation.getX(), currentLocation.getY(), currentLocation.getZ());
@@ -194,13 +243,10 @@ import org.jetbrains.annotations.NotNull;
       newPos = new BlockPos(position);
     }
 
-    // Make sure we're still within the bounds of the tree area
+    // Make sure we're still within the bounds of the tree area. The slice is allocated when the
+    // branch's writes are applied, so this only reads the tree.
     if (!tree.areValidTreeCoordinates(newPos)) return false;
 
-    // Add missing tree slices
-    TreeSpace.Slice slice = tree.slice(newPos.getY()).allocate().orElse(null);
-    if (slice == null) return false;
-
     int l = newPos.distManhattan(currentLocation);
     currentLength += l;
     currentSegmentLength += l;
@@ -238,7 +284,8 @@ import org.jetbrains.annotations.NotNull;
           .branchSplitMinimumFirstSegmentLength(
               parameters.branchSplitMinimumFirstSegmentLength.sample(r))
           .splitProbabilityFunction(parameters.branchSplitDistribution)
-          .segmentLengthFunction(parameters.branchSegmentLength);
+          .segmentLengthFunction(parameters.branchSegmentLength)
+          .random(r.fork());
     }
 
     @Nonnull
@@ -255,9 +302,12 @@ import org.jetbrains.annotations.NotNull;
           .upwardBias(parent.upwardBias)
           .continueBias(parent.continueBias)
           .splitProbabilityFunction(parent.splitProbabilityFunction)
+          .splitProbability(parent.splitProbability)
           .branchSplitMinimumFirstSegmentLength(branchSplitMinimumFirstSegmentLength)
           .segmentLengthFunction(parent.segmentLengthFunction)
-          .turnSelectionFunction(parent.turnSelectionFunction);
+          .turnSelectionFunction(parent.turnSelectionFunction)
+          .canopy(parent.canopy)
+          .random(parent.random.fork());
     }
   }
 
@@ -0,0 +1,309 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nonnull;
+
+/**
+ * A sparse {@link TreeStorage} that divides the space into cubic bricks of {@link #BRICK_SIZE}
+ * cells per side. Bricks are only allocated once a block is written into them, so the memory used
+ * by the storage grows with the tree rather than with the size of its bounding box. The brick
+ * directory is indexed in Morton (Z-order) so that bricks which are close together in the tree are
+ * close together in the directory as well.
+ *
+ * <p>Each brick keeps a small palette of the block codes it contains and packs its cells using only
+ * as many bits as that palette requires. Bricks that only ever contain air are never allocated, and
+ * a brick holding a single kind of block (for example, the solid core of the trunk) needs just one
+ * bit per cell.
+ *
+ * <p>The storage is lock-free: bricks are installed into the directory with a compare-and-set, and
+ * cells are written by compare-and-set on the packed word that holds them. When a write needs a
+ * palette entry that a brick doesn't have yet, the writer freezes the brick's current layout,
+ * copies it into a wider one, and publishes the copy; other writers that run into the frozen layout
+ * retry against its replacement.
+ */
+/*package*/ final class BrickedTreeStorage implements TreeStorage {
+  static final int BRICK_BITS = 4;
+  static final int BRICK_SIZE = 1 << BRICK_BITS;
+  private static final int BRICK_MASK = BRICK_SIZE - 1;
+  private static final int BRICK_VOLUME = BRICK_SIZE * BRICK_SIZE * BRICK_SIZE;
+
+  private final int sliceSize;
+  private final int maxHeight;
+  private final AtomicReferenceArray<Brick> bricks;
+
+  private final AtomicInteger height = new AtomicInteger();
+  private final AtomicInteger minAllocatedX = new AtomicInteger(Integer.MAX_VALUE);
+  private final AtomicInteger maxAllocatedX = new AtomicInteger(Integer.MIN_VALUE);
+  private final AtomicInteger minAllocatedZ = new AtomicInteger(Integer.MAX_VALUE);
+  private final AtomicInteger maxAllocatedZ = new AtomicInteger(Integer.MIN_VALUE);
+
+  /**
+   * @param sliceSize the number of cells along each horizontal edge of a slice.
+   * @param maxHeight the maximum number of slices the storage can hold.
+   */
+  BrickedTreeStorage(int sliceSize, int maxHeight) {
+    this.sliceSize = sliceSize;
+    this.maxHeight = maxHeight;
+
+    int bricksPerAxis = (Math.max(sliceSize, maxHeight) + BRICK_MASK) >> BRICK_BITS;
+    int mortonBitsPerAxis = 32 - Integer.numberOfLeadingZeros(Math.max(1, bricksPerAxis - 1));
+    this.bricks = new AtomicReferenceArray<>(1 << (mortonBitsPerAxis * 3));
+  }
+
+  @Override
+  public byte get(int sliceXIndex, int y, int sliceZIndex) {
+    Brick brick = bricks.get(brickIndex(sliceXIndex, y, sliceZIndex));
+    return brick == null ? 0 : brick.get(cellIndex(sliceXIndex, y, sliceZIndex));
+  }
+
+  @Override
+  public byte set(int sliceXIndex, int y, int sliceZIndex, byte code) {
+    int brickIndex = brickIndex(sliceXIndex, y, sliceZIndex);
+    Brick brick = bricks.get(brickIndex);
+    if (brick == null) {
+      // Writing air into an empty brick doesn't require any storage
+      if (code == 0) return 0;
+      brick = allocate(brickIndex, sliceXIndex, sliceZIndex);
+    }
+    return brick.update(cellIndex(sliceXIndex, y, sliceZIndex), code, (byte) 0, false);
+  }
+
+  @Override
+  public boolean compareAndSet(int sliceXIndex, int y, int sliceZIndex, byte expected, byte code) {
+    int brickIndex = brickIndex(sliceXIndex, y, sliceZIndex);
+    Brick brick = bricks.get(brickIndex);
+    if (brick == null) {
+      if (expected != 0) return false;
+      if (code == 0) return true;
+      brick = allocate(brickIndex, sliceXIndex, sliceZIndex);
+    }
+    return brick.update(cellIndex(sliceXIndex, y, sliceZIndex), code, expected, true) == expected;
+  }
+
+  private @Nonnull Brick allocate(int brickIndex, int sliceXIndex, int sliceZIndex) {
+    Brick brick = new Brick();
+    if (!bricks.compareAndSet(brickIndex, null, brick)) return bricks.get(brickIndex);
+
+    int minX = sliceXIndex & ~BRICK_MASK, minZ = sliceZIndex & ~BRICK_MASK;
+    minAllocatedX.accumulateAndGet(minX, Math::min);
+    maxAllocatedX.accumulateAndGet(Math.min(sliceSize, minX + BRICK_SIZE), Math::max);
+    minAllocatedZ.accumulateAndGet(minZ, Math::min);
+    maxAllocatedZ.accumulateAndGet(Math.min(sliceSize, minZ + BRICK_SIZE), Math::max);
+    return brick;
+  }
+
+  @Override
+  public int height() {
+    return height.get();
+  }
+
+  @Override
+  public boolean allocateThrough(int y) {
+    if (y < 0 || y >= maxHeight) return false;
+    if (y >= height.get()) height.accumulateAndGet(y + 1, Math::max);
+    return true;
+  }
+
+  @Override
+  public int minAllocatedSliceXIndex() {
+    int min = minAllocatedX.get();
+    return maxAllocatedX.get() < min ? 0 : min;
+  }
+
+  @Override
+  public int maxAllocatedSliceXIndex() {
+    int max = maxAllocatedX.get();
+    return max < minAllocatedX.get() ? 0 : max;
+  }
+
+  @Override
+  public int minAllocatedSliceZIndex() {
+    int min = minAllocatedZ.get();
+    return maxAllocatedZ.get() < min ? 0 : min;
+  }
+
+  @Override
+  public int maxAllocatedSliceZIndex() {
+    int max = maxAllocatedZ.get();
+    return max < minAllocatedZ.get() ? 0 : max;
+  }
+
+  private static int brickIndex(int sliceXIndex, int y, int sliceZIndex) {
+    return spreadBits(sliceXIndex >> BRICK_BITS)
+        | spreadBits(y >> BRICK_BITS) << 1
+        | spreadBits(sliceZIndex >> BRICK_BITS) << 2;
+  }
+
+  private static int cellIndex(int sliceXIndex, int y, int sliceZIndex) {
+    return ((y & BRICK_MASK) << (BRICK_BITS * 2))
+        | ((sliceXIndex & BRICK_MASK) << BRICK_BITS)
+        | (sliceZIndex & BRICK_MASK);
+  }
+
+  /** Spreads the low 10 bits of the given value so that each is followed by two zero bits. */
+  private static int spreadBits(int v) {
+    v &= 0x3ff;
+    v = (v | (v << 16)) & 0x030000ff;
+    v = (v | (v << 8)) & 0x0300f00f;
+    v = (v | (v << 4)) & 0x030c30c3;
+    v = (v | (v << 2)) & 0x09249249;
+    return v;
+  }
+
+  /**
+   * A single brick of cells. The brick's contents are described by its current {@link Layout};
+   * writes that need a new palette entry replace the layout.
+   */
+  private static final class Brick {
+    private final AtomicReference<Layout> layout = new AtomicReference<>(Layout.EMPTY);
+
+    byte get(int cellIndex) {
+      return layout.get().get(cellIndex);
+    }
+
+    /**
+     * Stores a code in the given cell. When {@code conditional} is set, the code is only stored if
+     * the cell currently holds {@code expected}.
+     *
+     * @return the code held by the cell before the update.
+     */
+    byte update(int cellIndex, byte code, byte expected, boolean conditional) {
+      for (; ; ) {
+        Layout current = layout.get();
+        int entry = current.indexOf(code);
+        if (entry >= 0 && current.bits > 0) {
+          int previous = current.tryWrite(cellIndex, entry, expected, conditional);
+          if (previous != Layout.FROZEN) return (byte) previous;
+        }
+
+        // The write can't be made in place: either the palette is missing the code, or another
+        // writer is already replacing the layout. Check whether there's anything to write before
+        // freezing the layout and publishing a replacement that includes this write.
+        byte previous = current.get(cellIndex);
+        if (previous == code || (conditional && previous != expected)) return previous;
+
+        current.freeze();
+        previous = current.get(cellIndex);
+        if (previous == code || (conditional && previous != expected)) return previous;
+        if (layout.compareAndSet(current, current.copyWith(cellIndex, code))) return previous;
+      }
+    }
+  }
+
+  /**
+   * The palette of block codes used within a {@link Brick} together with the brick's cells, packed
+   * as indices into that palette using only as many bits as the palette requires. Bricks with a
+   * single palette entry need no cell data at all.
+   *
+   * <p>The highest bit of every packed word is reserved as a "frozen" flag. Once a layout has been
+   * frozen its cells can no longer change, which lets it be copied safely into a replacement.
+   */
+  private static final class Layout {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long FROZEN_BIT = 1L << 63;
+    private static final int USABLE_BITS = Long.SIZE - 1;
+
+    /** Returned by {@link #tryWrite} when the word holding the cell has been frozen. */
+    static final int FROZEN = -1;
+
+    static final Layout EMPTY = new Layout(new byte[] {0});
+
+    final byte[] codes;
+    final int bits;
+    final int entriesPerWord;
+    final long mask;
+    final long[] packed;
+
+    private Layout(@Nonnull byte[] codes) {
+      this.codes = codes;
+      this.bits = codes.length <= 1 ? 0 : codes.length <= 2 ? 1 : codes.length <= 4 ? 2 : 4;
+      this.entriesPerWord = bits == 0 ? 0 : USABLE_BITS / bits;
+      this.mask = (1L << bits) - 1;
+      this.packed =
+          bits == 0 ? null : new long[(BRICK_VOLUME + entriesPerWord - 1) / entriesPerWord];
+    }
+
+    byte get(int cellIndex) {
+      return bits == 0 ? codes[0] : codes[read(cellIndex)];
+    }
+
+    int indexOf(byte code) {
+      for (int i = 0; i < codes.length; i++) if (codes[i] == code) return i;
+      return -1;
+    }
+
+    /**
+     * Attempts to store the given palette entry in a cell with a compare-and-set on the word that
+     * holds it.
+     *
+     * @return the code previously held by the cell, or {@link #FROZEN} if the layout is being
+     *     replaced and the write must be retried against the replacement.
+     */
+    int tryWrite(int cellIndex, int entry, byte expected, boolean conditional) {
+      int word = cellIndex / entriesPerWord;
+      int shift = (cellIndex - word * entriesPerWord) * bits;
+      for (; ; ) {
+        long w = (long) WORDS.getVolatile(packed, word);
+        if ((w & FROZEN_BIT) != 0) return FROZEN;
+
+        int previousEntry = (int) ((w >>> shift) & mask);
+        byte previous = codes[previousEntry];
+        if (previousEntry == entry || (conditional && previous != expected)) return previous;
+
+        long next = (w & ~(mask << shift)) | ((long) entry << shift);
+        if (WORDS.compareAndSet(packed, word, w, next)) return previous;
+      }
+    }
+
+    /** Prevents any further in-place writes to this layout. */
+    void freeze() {
+      if (bits == 0) return;
+      for (int word = 0; word < packed.length; word++) {
+        long w;
+        do {
+          w = (long) WORDS.getVolatile(packed, word);
+        } while ((w & FROZEN_BIT) == 0
+            && !WORDS.compareAndSet(packed, word, w, w | FROZEN_BIT));
+      }
+    }
+
+    /**
+     * @return a copy of this (frozen) layout with the given code stored in the given cell, adding
+     *     the code to the palette if necessary.
+     */
+    @Nonnull
+    Layout copyWith(int cellIndex, byte code) {
+      int entry = indexOf(code);
+      byte[] nextCodes = codes;
+      if (entry < 0) {
+        entry = codes.length;
+        nextCodes = new byte[codes.length + 1];
+        System.arraycopy(codes, 0, nextCodes, 0, codes.length);
+        nextCodes[entry] = code;
+      }
+
+      // Palette entries are only ever appended, so existing cells keep their entry indices
+      Layout next = new Layout(nextCodes);
+      if (bits > 0)
+        for (int i = 0; i < BRICK_VOLUME; i++) next.write(i, read(i));
+      next.write(cellIndex, entry);
+      return next;
+    }
+
+    private int read(int cellIndex) {
+      int word = cellIndex / entriesPerWord;
+      int shift = (cellIndex - word * entriesPerWord) * bits;
+      return (int) ((packed[word] >>> shift) & mask);
+    }
+
+    private void write(int cellIndex, int entry) {
+      int word = cellIndex / entriesPerWord;
+      int shift = (cellIndex - word * entriesPerWord) * bits;
+      packed[word] = (packed[word] & ~(mask << shift)) | ((long) entry << shift);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nonnull;
+import net.minecraft.core.BlockPos;
+
+/**
+ * The leaf clusters of a tree, collected while its branches grow and filled in afterwards, once
+ * every branch is finished.
+ *
+ * <p>Growing a cluster only reads and writes the cells near it, so clusters that are far enough
+ * apart can't affect each other. The canopy {@linkplain #partition() partitions} its clusters into
+ * regions that share no cells, and grows the regions in parallel. Within a region, clusters grow
+ * one after another in a fixed order, so the leaves a tree ends up with don't depend on the order
+ * in which its branches happened to finish.
+ */
+/*package*/ final class Canopy {
+  // The order clusters grow in within a region: from the ground up, then by position and size.
+  private static final Comparator<LeafNode> GROWTH_ORDER =
+      Comparator.<LeafNode>comparingInt(node -> node.nodeLocation.getY())
+          .thenComparingInt(node -> node.nodeLocation.getX())
+          .thenComparingInt(node -> node.nodeLocation.getZ())
+          .thenComparingDouble(node -> node.radius)
+          .thenComparingDouble(node -> node.dropoffRate);
+
+  private final @Nonnull ConcurrentLinkedQueue<LeafNode> clusters = new ConcurrentLinkedQueue<>();
+
+  /** Records a leaf cluster to be grown later. Safe to call from several threads at once. */
+  void add(@Nonnull LeafNode cluster) {
+    clusters.add(cluster);
+  }
+
+  /**
+   * @return the number of clusters recorded so far.
+   */
+  int size() {
+    return clusters.size();
+  }
+
+  /**
+   * Grows every recorded cluster into the tree, and blocks until they've all finished. Nothing else
+   * may write to the tree in the meantime.
+   */
+  void grow(@Nonnull TreeSpace tree, @Nonnull GenerationScheduler scheduler) {
+    scheduler.forEach(
+        partition(),
+        region -> {
+          for (LeafNode cluster : region) cluster.grow(tree);
+        });
+  }
+
+  /**
+   * Splits the recorded clusters into regions, such that no cluster can read or write a cell that
+   * a cluster in another region writes. Clusters are grouped whenever their envelopes, grown by a
+   * cell in every direction to take in the neighbours each cell looks at, overlap.
+   *
+   * @return the regions, each listing its clusters in the order they should grow in.
+   */
+  @Nonnull
+  List<List<LeafNode>> partition() {
+    LeafNode[] nodes = clusters.toArray(new LeafNode[0]);
+    Arrays.sort(nodes, GROWTH_ORDER);
+
+    int n = nodes.length;
+    int[][] bounds = new int[n][];
+    for (int i = 0; i < n; i++) bounds[i] = reach(nodes[i]);
+
+    // Sweep along x, only comparing clusters whose x extents overlap.
+    Integer[] byMinX = new Integer[n];
+    for (int i = 0; i < n; i++) byMinX[i] = i;
+    Arrays.sort(byMinX, Comparator.comparingInt(i -> bounds[i][MIN_X]));
+
+    int[] regionOf = new int[n];
+    for (int i = 0; i < n; i++) regionOf[i] = i;
+    List<Integer> active = new ArrayList<>();
+    for (int i : byMinX) {
+      active.removeIf(j -> bounds[j][MAX_X] < bounds[i][MIN_X]);
+      for (int j : active) if (overlap(bounds[i], bounds[j])) union(regionOf, i, j);
+      active.add(i);
+    }
+
+    // Regions are listed in the order of their first cluster
+    Map<Integer, List<LeafNode>> regions = new LinkedHashMap<>();
+    for (int i = 0; i < n; i++)
+      regions.computeIfAbsent(find(regionOf, i), k -> new ArrayList<>()).add(nodes[i]);
+    return new ArrayList<>(regions.values());
+  }
+
+  // Indices into the bounds computed by reach()
+  private static final int MIN_X = 0, MIN_Y = 1, MIN_Z = 2, MAX_X = 3, MAX_Y = 4, MAX_Z = 5;
+
+  /**
+   * @return the inclusive bounds, in tree coordinates, of every cell the cluster may read or write
+   *     while it grows.
+   */
+  private static @Nonnull int[] reach(@Nonnull LeafNode node) {
+    int r = node.outerEnvelopeRadius();
+    BlockPos at = node.nodeLocation;
+    return new int[] {
+      at.getX() - r - 1,
+      at.getY() - r - 1,
+      at.getZ() - r - 1,
+      at.getX() + r,
+      at.getY() + r,
+      at.getZ() + r
+    };
+  }
+
+  private static boolean overlap(@Nonnull int[] a, @Nonnull int[] b) {
+    return a[MIN_X] <= b[MAX_X]
+        && b[MIN_X] <= a[MAX_X]
+        && a[MIN_Y] <= b[MAX_Y]
+        && b[MIN_Y] <= a[MAX_Y]
+        && a[MIN_Z] <= b[MAX_Z]
+        && b[MIN_Z] <= a[MAX_Z];
+  }
+
+  private static int find(@Nonnull int[] regionOf, int i) {
+    while (regionOf[i] != i) i = regionOf[i] = regionOf[regionOf[i]];
+    return i;
+  }
+
+  private static void union(@Nonnull int[] regionOf, int a, int b) {
+    regionOf[find(regionOf, a)] = find(regionOf, b);
+  }
+}
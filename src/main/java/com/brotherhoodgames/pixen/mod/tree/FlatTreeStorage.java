@@ -0,0 +1,95 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link TreeStorage} that keeps every cell of the space as a single {@linkplain
+ * GiantRedwoodGenerator.TreeBlock#code() block code} in one contiguous array, laid out slice by
+ * slice (y), then row by row (slice x index), then cell by cell (slice z index). Iterating over a
+ * slice in index order is therefore a sequential scan over memory.
+ *
+ * <p>The array is sized for the tallest possible tree up front; the storage only tracks how many
+ * slices have been {@linkplain #allocateThrough(int) allocated} so that callers can keep treating
+ * the space as growing from the ground up.
+ *
+ * <p>Cells are updated with atomic operations directly on the array, so concurrent writers never
+ * need to take a lock.
+ */
+/*package*/ final class FlatTreeStorage implements TreeStorage {
+  private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+  private final int sliceSize;
+  private final int sliceArea;
+  private final int maxHeight;
+  private final byte[] cells;
+
+  private final AtomicInteger height = new AtomicInteger();
+
+  /**
+   * @param sliceSize the number of cells along each horizontal edge of a slice.
+   * @param maxHeight the maximum number of slices the storage can hold.
+   */
+  FlatTreeStorage(int sliceSize, int maxHeight) {
+    this.sliceSize = sliceSize;
+    this.sliceArea = sliceSize * sliceSize;
+    this.maxHeight = maxHeight;
+    this.cells = new byte[sliceArea * maxHeight];
+  }
+
+  /**
+   * @return the array index of the cell at the given slice coordinates. The coordinates are
+   *     assumed to be valid.
+   */
+  private int index(int sliceXIndex, int y, int sliceZIndex) {
+    return y * sliceArea + sliceXIndex * sliceSize + sliceZIndex;
+  }
+
+  @Override
+  public byte get(int sliceXIndex, int y, int sliceZIndex) {
+    return cells[index(sliceXIndex, y, sliceZIndex)];
+  }
+
+  @Override
+  public byte set(int sliceXIndex, int y, int sliceZIndex, byte code) {
+    return (byte) CELLS.getAndSet(cells, index(sliceXIndex, y, sliceZIndex), code);
+  }
+
+  @Override
+  public boolean compareAndSet(int sliceXIndex, int y, int sliceZIndex, byte expected, byte code) {
+    return CELLS.compareAndSet(cells, index(sliceXIndex, y, sliceZIndex), expected, code);
+  }
+
+  @Override
+  public int height() {
+    return height.get();
+  }
+
+  @Override
+  public boolean allocateThrough(int y) {
+    if (y < 0 || y >= maxHeight) return false;
+    if (y >= height.get()) height.accumulateAndGet(y + 1, Math::max);
+    return true;
+  }
+
+  @Override
+  public int minAllocatedSliceXIndex() {
+    return 0;
+  }
+
+  @Override
+  public int maxAllocatedSliceXIndex() {
+    return sliceSize;
+  }
+
+  @Override
+  public int minAllocatedSliceZIndex() {
+    return 0;
+  }
+
+  @Override
+  public int maxAllocatedSliceZIndex() {
+    return sliceSize;
+  }
+}
@@ -0,0 +1,120 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import net.minecraft.core.BlockPos;
+
+/**
+ * Collects the blocks produced by a {@link GiantRedwoodGenerator}, in the order they were produced,
+ * so that they can be handed to another thread and placed in a world later. Each block takes a
+ * packed {@linkplain BlockPos#asLong() position} and a {@linkplain
+ * GiantRedwoodGenerator.TreeBlock#code() code}, rather than an object per block. Blocks are kept in
+ * the batches the generator delivered them in, one chunk section per batch.
+ *
+ * <p>Instances aren't thread-safe: fill one on a single thread, and publish it to others safely
+ * (e.g. through a {@link java.util.concurrent.CompletableFuture}) once it's complete.
+ */
+public final class GeneratedBlocks implements GiantRedwoodGenerator.BulkGenerationCollaborator {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int INITIAL_SECTION_CAPACITY = 16;
+
+  private long[] positions = new long[INITIAL_CAPACITY];
+  private byte[] codes = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  // The sections the blocks fall in, in the order they arrived, and the index just past the last
+  // block in each.
+  private long[] sections = new long[INITIAL_SECTION_CAPACITY];
+  private int[] sectionEnds = new int[INITIAL_SECTION_CAPACITY];
+  private int sectionCount;
+
+  @Override
+  public void setBlocks(
+      long sectionPos, @Nonnull long[] positions, @Nonnull byte[] codes, int count) {
+    if (size + count > this.positions.length) {
+      int capacity = Math.max(size + count, this.positions.length * 2);
+      this.positions = Arrays.copyOf(this.positions, capacity);
+      this.codes = Arrays.copyOf(this.codes, capacity);
+    }
+    System.arraycopy(positions, 0, this.positions, size, count);
+    System.arraycopy(codes, 0, this.codes, size, count);
+    size += count;
+
+    if (sectionCount > 0 && sections[sectionCount - 1] == sectionPos) {
+      sectionEnds[sectionCount - 1] = size;
+    } else {
+      if (sectionCount == sections.length) {
+        sections = Arrays.copyOf(sections, sectionCount * 2);
+        sectionEnds = Arrays.copyOf(sectionEnds, sectionCount * 2);
+      }
+      sections[sectionCount] = sectionPos;
+      sectionEnds[sectionCount++] = size;
+    }
+  }
+
+  /**
+   * @return the number of blocks collected.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of batches collected. Each batch holds blocks from a single chunk section.
+   */
+  public int batchCount() {
+    return sectionCount;
+  }
+
+  /**
+   * @return the chunk section holding the blocks in the given batch, as packed by {@link
+   *     net.minecraft.core.SectionPos#asLong(int, int, int)}.
+   */
+  public long batchSection(int batch) {
+    return sections[batch];
+  }
+
+  /**
+   * @return the index of the first block in the given batch.
+   */
+  public int batchStart(int batch) {
+    return batch == 0 ? 0 : sectionEnds[batch - 1];
+  }
+
+  /**
+   * @return the index just past the last block in the given batch.
+   */
+  public int batchEnd(int batch) {
+    return sectionEnds[batch];
+  }
+
+  /**
+   * @return the world position of the block at the given index, as packed by {@link
+   *     BlockPos#asLong()}.
+   */
+  public long position(int index) {
+    return positions[index];
+  }
+
+  /**
+   * @return the block at the given index.
+   */
+  public @Nonnull GiantRedwoodGenerator.TreeBlock block(int index) {
+    return Objects.requireNonNull(GiantRedwoodGenerator.TreeBlock.fromCode(codes[index]));
+  }
+
+  /** Calls the given visitor once for every block collected, in the order they were collected. */
+  public void forEach(@Nonnull BlockVisitor visitor) {
+    for (int i = 0; i < size; i++)
+      visitor.visit(positions[i], GiantRedwoodGenerator.TreeBlock.fromCode(codes[i]));
+  }
+
+  @FunctionalInterface
+  public interface BlockVisitor {
+    /**
+     * @param packedPosition the block's world position, as packed by {@link BlockPos#asLong()}.
+     */
+    void visit(long packedPosition, @Nonnull GiantRedwoodGenerator.TreeBlock treeBlock);
+  }
+}
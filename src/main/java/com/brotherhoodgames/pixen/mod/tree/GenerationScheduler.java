@@ -0,0 +1,235 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Runs {@link IterativeGenerator}s to completion on a dedicated pool of worker threads.
+ *
+ * <p>Each generator is driven as a continuation: after an iteration, the generators it returns
+ * (usually itself, plus any new branches) are queued on the same worker and run next, without
+ * waiting for any other generator. A worker only hands queued generators to other workers when
+ * they look idle, so while only a few generators are active they run sequentially on one thread
+ * and pay nothing for coordination.
+ *
+ * <p>With no barrier between iterations, generators can't see each other's writes at any
+ * predictable point, so they don't see them at all: every generator records its writes in its
+ * lineage's own {@link TreeWrites}, and the tree is only written once all of them have finished,
+ * one lineage at a time in the order the lineages were created. What each generator reads, and the
+ * order the writes land in, is then the same on any number of cores.
+ *
+ * <p>The pool is separate from the common fork-join pool, so tree generation doesn't compete with
+ * other users of it, and its parallelism is bounded.
+ */
+/*package*/ final class GenerationScheduler {
+  private static final GenerationScheduler SHARED =
+      new GenerationScheduler(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+  private final @Nullable ForkJoinPool pool;
+
+  /**
+   * @param parallelism the maximum number of threads that may run generators at once. With a
+   *     parallelism of {@code 1}, generators run on the calling thread.
+   */
+  GenerationScheduler(int parallelism) {
+    this.pool =
+        parallelism > 1
+            ? new ForkJoinPool(parallelism, GenerationScheduler::newWorker, null, true)
+            : null;
+  }
+
+  /**
+   * @return the scheduler shared by all tree generators, which uses up to half of the available
+   *     processors.
+   */
+  static @Nonnull GenerationScheduler shared() {
+    return SHARED;
+  }
+
+  /**
+   * Iterates the given generators, and every generator they produce, until none remain. Blocks
+   * until all of them have finished.
+   *
+   * @param maxIterations the maximum number of iterations along any chain of generators, counting
+   *     from the initial generators; generators produced by the last allowed iteration are
+   *     dropped.
+   */
+  void run(
+      @Nonnull Collection<IterativeGenerator> generators,
+      @Nonnull GiantRedwoodGenerationParameters parameters,
+      @Nonnull TreeSpace tree,
+      int maxIterations) {
+    List<Lineage> lineages = new ArrayList<>(generators.size());
+    ArrayDeque<Continuation> queue = new ArrayDeque<>(generators.size());
+    for (IterativeGenerator generator : generators) {
+      Lineage lineage = new Lineage();
+      lineages.add(lineage);
+      queue.add(new Continuation(generator, lineage, 0));
+    }
+
+    Context context = new Context(parameters, tree, maxIterations);
+    if (pool == null) context.drain(queue, null);
+    else pool.invoke(new Task(null, context, queue));
+
+    // Every generator has finished, so their writes can be made in a fixed order: each lineage's
+    // own writes, then those of the lineages it started, depth first.
+    ArrayDeque<Lineage> pending = new ArrayDeque<>();
+    for (int i = lineages.size() - 1; i >= 0; i--) pending.push(lineages.get(i));
+    while (!pending.isEmpty()) {
+      Lineage lineage = pending.pop();
+      lineage.writes.applyTo(tree);
+      for (int i = lineage.children.size() - 1; i >= 0; i--) pending.push(lineage.children.get(i));
+    }
+  }
+
+  /**
+   * Runs {@code action} once for each of the given items, in parallel on the scheduler's workers.
+   * Blocks until every item has been processed.
+   */
+  <T> void forEach(@Nonnull List<T> items, @Nonnull Consumer<? super T> action) {
+    if (pool == null || items.size() < 2) items.forEach(action);
+    else pool.invoke(new ForEachTask<>(items, 0, items.size(), action));
+  }
+
+  private static @Nonnull ForkJoinWorkerThread newWorker(@Nonnull ForkJoinPool pool) {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("pixen-tree-generation-" + thread.getPoolIndex());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * A generator and the generators that continue it, and the writes they've made. A lineage only
+   * ever runs one iteration at a time, so neither its writes nor its children need guarding.
+   */
+  private static final class Lineage {
+    final @Nonnull TreeWrites writes = new TreeWrites();
+    final @Nonnull List<Lineage> children = new ArrayList<>(0);
+
+    /**
+     * @return a new lineage for a generator this one started.
+     */
+    @Nonnull
+    Lineage child() {
+      Lineage child = new Lineage();
+      children.add(child);
+      return child;
+    }
+  }
+
+  /** A generator waiting to run its next iteration. */
+  private static final class Continuation {
+    final @Nonnull IterativeGenerator generator;
+    final @Nonnull Lineage lineage;
+    final int iteration;
+
+    Continuation(@Nonnull IterativeGenerator generator, @Nonnull Lineage lineage, int iteration) {
+      this.generator = generator;
+      this.lineage = lineage;
+      this.iteration = iteration;
+    }
+  }
+
+  /** The state shared by every task working on a single tree. */
+  private static final class Context {
+    final @Nonnull GiantRedwoodGenerationParameters parameters;
+    final @Nonnull TreeSpace tree;
+    final int maxIterations;
+
+    Context(
+        @Nonnull GiantRedwoodGenerationParameters parameters,
+        @Nonnull TreeSpace tree,
+        int maxIterations) {
+      this.parameters = parameters;
+      this.tree = tree;
+      this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Runs continuations from the queue until it's empty, handing surplus continuations to other
+     * workers through {@code task} when it's given.
+     */
+    void drain(@Nonnull ArrayDeque<Continuation> queue, @Nullable Task task) {
+      while (!queue.isEmpty()) {
+        Continuation next = queue.poll();
+        if (next.iteration >= maxIterations) continue;
+
+        next.generator
+            .iterate(parameters, tree, next.lineage.writes)
+            .forEach(
+                g ->
+                    queue.add(
+                        new Continuation(
+                            g,
+                            g == next.generator ? next.lineage : next.lineage.child(),
+                            next.iteration + 1)));
+
+        // Only split off work when this worker's own queue of forked tasks is running dry, which
+        // means other workers are likely to be idle and able to steal it.
+        while (task != null && queue.size() > 1 && ForkJoinTask.getSurplusQueuedTaskCount() <= 0) {
+          ArrayDeque<Continuation> split = new ArrayDeque<>(1);
+          split.add(queue.pollLast());
+          task.addToPendingCount(1);
+          new Task(task, this, split).fork();
+        }
+      }
+    }
+  }
+
+  /** A unit of work on the scheduler's pool: a queue of continuations to drain. */
+  private static final class Task extends CountedCompleter<Void> {
+    private final @Nonnull Context context;
+    private final @Nonnull ArrayDeque<Continuation> queue;
+
+    Task(
+        @Nullable CountedCompleter<?> parent,
+        @Nonnull Context context,
+        @Nonnull ArrayDeque<Continuation> queue) {
+      super(parent);
+      this.context = context;
+      this.queue = queue;
+    }
+
+    @Override
+    public void compute() {
+      context.drain(queue, this);
+      tryComplete();
+    }
+  }
+
+  /** Runs an action on a range of items, splitting the range in half until it's a single item. */
+  private static final class ForEachTask<T> extends RecursiveAction {
+    private final @Nonnull List<T> items;
+    private final int from;
+    private final int to;
+    private final @Nonnull Consumer<? super T> action;
+
+    ForEachTask(@Nonnull List<T> items, int from, int to, @Nonnull Consumer<? super T> action) {
+      this.items = items;
+      this.from = from;
+      this.to = to;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) action.accept(items.get(from));
+      else {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new ForEachTask<>(items, from, middle, action),
+            new ForEachTask<>(items, middle, to, action));
+      }
+    }
+  }
+}
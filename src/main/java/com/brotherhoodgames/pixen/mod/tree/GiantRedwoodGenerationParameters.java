@@ -7,13 +7,26 @@ import static com.brotherhoodgames.pixen.mod.util.stats.RandomVariables.range;
 import com.brotherhoodgames.pixen.mod.util.stats.Pdf;
 import com.brotherhoodgames.pixen.mod.util.stats.Pdfs;
 import com.brotherhoodgames.pixen.mod.util.stats.RandomVariable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
 import javax.annotation.Nonnull;
 import lombok.Builder;
 import lombok.Data;
+import net.minecraft.util.RandomSource;
 
 @Data
-@Builder(builderClassName = "Builder")
+@Builder(builderClassName = "Builder", toBuilder = true)
 public final class GiantRedwoodGenerationParameters implements Serializable {
   public static final GiantRedwoodGenerationParameters DEFAULT_PARAMETERS =
       builder()
@@ -39,6 +52,7 @@ public final class GiantRedwoodGenerationParameters implements Serializable {
           .branchSegmentLength(range(2, 4))
           .branchSplitProbabilityScalar(range(0.2, 0.4))
           .branchSplitMinimumFirstSegmentLength(constant(3))
+          .branchAvoidanceMode(BranchAvoidanceMode.MOMENT_FIELD)
           .branchYDeflectionRadians(
               confidenceInterval(0.99, Math.toRadians(-5.0), Math.toRadians(15)))
           .branchHeightDistribution(
@@ -65,6 +79,10 @@ public final class GiantRedwoodGenerationParameters implements Serializable {
           .leafClusterRadius(confidenceInterval(0.9, 3, 4))
           .build();
 
+  // The number of points at which, and samples with which, each parameter is fingerprinted
+  private static final int FINGERPRINT_POINTS = 64;
+  private static final long FINGERPRINT_SEED = 0x5049584e_46505254L;
+
   /*package*/ final @Nonnull RandomVariable trunkDiameter;
   /*package*/ final @Nonnull RandomVariable trunkChords;
   /*package*/ final @Nonnull RandomVariable trunkChordScale;
@@ -91,9 +109,113 @@ public final class GiantRedwoodGenerationParameters implements Serializable {
   /*package*/ final @Nonnull RandomVariable branchYDeflectionRadians;
   /*package*/ final @Nonnull Pdf branchHeightDistribution;
   /*package*/ final @Nonnull Pdf branchSplitDistribution;
+  /*package*/ @Builder.Default final @Nonnull BranchAvoidanceMode branchAvoidanceMode =
+      BranchAvoidanceMode.MOMENT_FIELD;
 
   /*package*/ final @Nonnull RandomVariable leafClusterAtSplitProbability;
   /*package*/ final @Nonnull RandomVariable leafClusterDropOffProbability;
   /*package*/ final @Nonnull RandomVariable leafClusterNodeCount;
   /*package*/ final @Nonnull RandomVariable leafClusterRadius;
+
+  /**
+   * @return a copy of these parameters with every random variable {@linkplain
+   *     RandomVariable#compile() compiled}. The copy generates exactly the same trees, and so has
+   *     the same {@linkplain #fingerprint() fingerprint}.
+   */
+  /*package*/ @Nonnull
+  GiantRedwoodGenerationParameters compiled() {
+    return toBuilder()
+        .trunkDiameter(trunkDiameter.compile())
+        .trunkChords(trunkChords.compile())
+        .trunkChordScale(trunkChordScale.compile())
+        .trunkChordRadii(trunkChordRadii.compile())
+        .trunkChordEccentricity(trunkChordEccentricity.compile())
+        .trunkChordGravity(trunkChordGravity.compile())
+        .trunkChordInitialVelocityMagnitude(trunkChordInitialVelocityMagnitude.compile())
+        .trunkChordInitialVelocityDeflection(trunkChordInitialVelocityDeflection.compile())
+        .trunkChordAngularVelocity(trunkChordAngularVelocity.compile())
+        .trunkChordAngularVelocityDampening(trunkChordAngularVelocityDampening.compile())
+        .heartwoodDiameter(heartwoodDiameter.compile())
+        .trunkSetback(trunkSetback.compile())
+        .trunkSetbackAcceleration(trunkSetbackAcceleration.compile())
+        .branchCount(branchCount.compile())
+        .branchStraightnessBias(branchStraightnessBias.compile())
+        .branchSeparationBias(branchSeparationBias.compile())
+        .branchRadialBias(branchRadialBias.compile())
+        .branchUpwardBias(branchUpwardBias.compile())
+        .branchLength(branchLength.compile())
+        .branchSegmentLength(branchSegmentLength.compile())
+        .branchSplitProbabilityScalar(branchSplitProbabilityScalar.compile())
+        .branchSplitMinimumFirstSegmentLength(branchSplitMinimumFirstSegmentLength.compile())
+        .branchYDeflectionRadians(branchYDeflectionRadians.compile())
+        .leafClusterAtSplitProbability(leafClusterAtSplitProbability.compile())
+        .leafClusterDropOffProbability(leafClusterDropOffProbability.compile())
+        .leafClusterNodeCount(leafClusterNodeCount.compile())
+        .leafClusterRadius(leafClusterRadius.compile())
+        .build();
+  }
+
+  /**
+   * @return a 64-bit digest of every parameter, which is (with overwhelming probability) different
+   *     for any two sets of parameters that generate different trees. Parameter objects, such as
+   *     {@link Pdf}s, don't necessarily define equality, and their classes change shape over time,
+   *     so the digest is taken over how each parameter behaves: its values at a fixed set of
+   *     points, and a fixed run of samples drawn from it. Two sets of parameters that sample alike
+   *     have the same fingerprint, however they're represented.
+   */
+  public long fingerprint() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      DataOutputStream out =
+          new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+      Field[] fields = GiantRedwoodGenerationParameters.class.getDeclaredFields();
+      // Digest the fields in a fixed order, since reflection doesn't promise one
+      Arrays.sort(fields, Comparator.comparing(Field::getName));
+      for (Field field : fields) {
+        if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) continue;
+        out.writeUTF(field.getName());
+        digestParameter(field.get(this), out);
+      }
+      out.flush();
+      return ByteBuffer.wrap(digest.digest()).getLong();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (NoSuchAlgorithmException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void digestParameter(@Nonnull Object parameter, @Nonnull DataOutputStream out)
+      throws IOException {
+    if (parameter instanceof RandomVariable variable) {
+      for (int i = -FINGERPRINT_POINTS; i <= FINGERPRINT_POINTS; i++)
+        out.writeDouble(variable.sample((double) i / FINGERPRINT_POINTS));
+      double[] samples = new double[FINGERPRINT_POINTS];
+      variable.sample(RandomSource.create(FINGERPRINT_SEED), samples, 0, samples.length);
+      for (double sample : samples) out.writeDouble(sample);
+    } else if (parameter instanceof Pdf pdf) {
+      for (int i = 0; i <= FINGERPRINT_POINTS; i++) {
+        out.writeDouble(pdf.samplePdf((double) i / FINGERPRINT_POINTS));
+        out.writeDouble(pdf.sampleCdf((double) i / FINGERPRINT_POINTS));
+      }
+    } else if (parameter instanceof Enum<?> constant) {
+      out.writeUTF(constant.name());
+    } else {
+      throw new IllegalStateException("Can't fingerprint a " + parameter.getClass());
+    }
+  }
+
+  /** How branches measure the "push" away from the blocks around them when they turn. */
+  public enum BranchAvoidanceMode {
+    /**
+     * Every filled block near the branch pushes on it individually. Expensive, but kept as the
+     * reference for the moment field.
+     */
+    EXACT,
+    /**
+     * Nearby blocks push on the branch in clusters taken from the tree's moment field, so the cost
+     * of a turn doesn't depend on how crowded the branch's surroundings are.
+     */
+    MOMENT_FIELD,
+  }
 }
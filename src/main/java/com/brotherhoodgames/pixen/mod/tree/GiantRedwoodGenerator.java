@@ -4,6 +4,7 @@ import com.brotherhoodgames.pixen.mod.util.DoubleRange;
 import com.google.common.collect.ImmutableList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
@@ -19,140 +20,172 @@ import org.joml.Vector3f;
 public class GiantRedwoodGenerator {
   public static final int MAX_TREE_RADIUS = 60;
   public static final int MAX_TREE_HEIGHT = 200;
+  public static final int MAX_SHOWCASE_TREE_RADIUS = 255;
+  public static final int MAX_SHOWCASE_TREE_HEIGHT = 512;
   public static final int MAX_BRANCH_ITERATIONS = 1000;
 
   private final GiantRedwoodGenerationParameters parameters;
+  private final TreeSpace.Backend backend;
+
+  public GiantRedwoodGenerator(
+      @Nonnull GiantRedwoodGenerationParameters parameters, @Nonnull TreeSpace.Backend backend) {
+    // Every tree samples the parameters thousands of times; compile them once up front
+    this.parameters = parameters.compiled();
+    this.backend = backend;
+  }
 
   public GiantRedwoodGenerator(@Nonnull GiantRedwoodGenerationParameters parameters) {
-    this.parameters = parameters;
+    this(parameters, TreeSpace.Backend.FLAT);
   }
 
   public GiantRedwoodGenerator() {
     this(GiantRedwoodGenerationParameters.DEFAULT_PARAMETERS);
   }
 
+  /**
+   * Generates a tree and passes its blocks to {@code collaborator} one at a time.
+   *
+   * @see #generateBatched(int, int, int, RandomSource, BulkGenerationCollaborator)
+   */
   public void generate(
       int treeWorldX,
       int treeWorldY,
       int treeWorldZ,
       @Nonnull RandomSource random,
       @Nonnull GenerationCollaborator collaborator) {
-    TreeSpace tree = new TreeSpace(Math.abs(parameters.trunkDiameter.sample(random)) / 2.0);
+    generateBatched(treeWorldX, treeWorldY, treeWorldZ, random, collaborator);
+  }
+
+  /**
+   * Generates a tree rooted at the given world coordinates and passes its blocks to {@code
+   * collaborator} in batches, one chunk section at a time, from the lowest sections up.
+   */
+  public void generateBatched(
+      int treeWorldX,
+      int treeWorldY,
+      int treeWorldZ,
+      @Nonnull RandomSource random,
+      @Nonnull BulkGenerationCollaborator collaborator) {
+    generateTemplate(random).copyTo(treeWorldX, treeWorldY, treeWorldZ, collaborator);
+  }
+
+  /**
+   * Generates a tree without placing it anywhere. The template can be {@linkplain
+   * TreeTemplate#copyTo copied} into the world as often as needed; each copy is identical to the
+   * tree {@link #generateBatched} would have produced from a random source in the same state.
+   */
+  public @Nonnull TreeTemplate generateTemplate(@Nonnull RandomSource random) {
+    TreeSpace tree =
+        new TreeSpace(
+            Math.abs(parameters.trunkDiameter.sample(random)) / 2.0, backend, random.nextLong());
 
     generateTrunk(parameters, random, tree);
-    generateBranches(parameters, tree, random);
 
-    // Copy the generated tree to the collaborator
-    tree.streamCells()
-        .filter(TreeSpace.Cell::isFilled)
-        .forEach(
-            cell ->
-                collaborator.setBlock(
-                    cell.getNonnull(),
-                    cell.treeX + treeWorldX,
-                    cell.y + treeWorldY,
-                    cell.treeZ + treeWorldZ));
+    // Leaf clusters are only recorded while the branches grow, and filled in once they're done
+    Canopy canopy = new Canopy();
+    generateBranches(parameters, tree, random, canopy);
+    canopy.grow(tree, GenerationScheduler.shared());
+
+    return TreeTemplate.of(tree);
   }
 
   private static void generateTrunk(
       GiantRedwoodGenerationParameters parameters,
       @Nonnull RandomSource random,
       @Nonnull TreeSpace tree) {
+    TrunkProfile profile = profileTrunk(parameters, random, tree);
+
+    final double maxTrunkRadius = tree.trunkBaseRadius * 1.8;
+
+    // Every slice of the trunk depends only on its own row of the profile, so the slices can be
+    // rasterized in any order.
+    if (profile.height() > 0) tree.slice(profile.height() - 1).allocate();
+    IntStream.range(0, profile.height())
+        .parallel()
+        .forEach(
+            y -> {
+              fillTrunk(tree, y, profile, maxTrunkRadius);
+              findBarkRing(tree.slice(y));
+            });
+    tree.markTrunkHeight();
+  }
+
+  /**
+   * Works out the shape of the trunk from the ground up, drawing from {@code random} in the same
+   * order as the trunk has always been generated in.
+   */
+  private static @Nonnull TrunkProfile profileTrunk(
+      GiantRedwoodGenerationParameters parameters,
+      @Nonnull RandomSource random,
+      @Nonnull TreeSpace tree) {
     List<TrunkChord> treeChords = initializeRings(parameters, random);
     double id = Math.abs(parameters.heartwoodDiameter.sample(random)) / 2.0;
     double trunkRadius = tree.trunkBaseRadius;
     double setback = parameters.trunkSetback.sample(random);
 
-    TreeSpace.Slice slice = tree.baseSlice();
-
-    final TrunkChord maxTrunkChord =
-        TrunkChord.builder().atOrigin().size(trunkRadius * 1.8, 0).unmoving().build();
-
-    while (trunkRadius > 0.5 && slice.allocate().isPresent()) {
-      fillTrunk(slice, treeChords, maxTrunkChord, trunkRadius);
-      findBarkRing(slice);
+    TrunkProfile profile = new TrunkProfile(treeChords.size(), tree.maxTreeHeight);
+    while (trunkRadius > 0.5 && !profile.isFull()) {
+      profile.add(trunkRadius, treeChords);
 
       trunkRadius -= setback;
       setback += parameters.trunkSetbackAcceleration.sample(random);
       treeChords.forEach(TrunkChord::climb);
-
-      slice = slice.above();
     }
-    tree.markTrunkHeight();
+    return profile;
   }
 
   private static void fillTrunk(
-      @Nonnull TreeSpace.Slice slice,
-      @Nonnull List<TrunkChord> treeChords,
-      @Nonnull TrunkChord maxTrunkChord,
-      double trunkRadius) {
-    slice
-        .streamCells()
-        .forEach(
-            cell -> {
-              if (maxTrunkChord.distance(cell.treeX, cell.treeZ) <= 0) {
-                double d =
-                    treeChords.stream()
-                        .mapToDouble(
-                            c -> c.distance(cell.treeX / trunkRadius, cell.treeZ / trunkRadius))
-                        .min()
-                        .orElse(1);
-                if (d <= 0) {
-                  cell.set(TreeBlock.WOOD);
-                }
-              }
-            });
+      @Nonnull TreeSpace tree, int y, @Nonnull TrunkProfile profile, double maxTrunkRadius) {
+    TreeSpace.Cursor cell = tree.cursor();
+    profile.rasterize(
+        y,
+        maxTrunkRadius,
+        (treeX, treeZ) -> {
+          if (cell.moveTo(treeX, y, treeZ).isValid()) cell.set(TreeBlock.WOOD);
+        });
   }
 
   private static void findBarkRing(@Nonnull TreeSpace.Slice slice) {
-    slice
-        .streamCells()
-        .forEach(
-            cell -> {
-              if (cell.isFilled() && cell.isTouchingInSlice(TreeBlock.AIR)) {
-                cell.set(TreeBlock.BARK);
-              }
-            });
+    slice.forEachFilledCell(
+        cell -> {
+          if (cell.isTouchingInSlice(TreeBlock.AIR)) {
+            cell.set(TreeBlock.BARK);
+          }
+        });
   }
 
   private static void generateBranches(
       @Nonnull GiantRedwoodGenerationParameters parameters,
       @Nonnull TreeSpace tree,
-      @Nonnull RandomSource random) {
+      @Nonnull RandomSource random,
+      @Nonnull Canopy canopy) {
     int branchCount = (int) parameters.branchCount.sample(random);
     double branchSeparation = (Math.PI * 2) / (branchCount + 1);
 
     List<IterativeGenerator> branches =
-        Stream.concat(
-                IntStream.range(0, branchCount)
-                    .mapToObj(
-                        branchIndex ->
-                            initializeBranch(
-                                parameters,
-                                tree,
-                                random,
-                                branchIndex,
-                                random.nextDouble() * Math.toRadians(45),
-                                branchSeparation)),
-                LeafNode.initializeAndStreamLeafNodes(
-                    random, new BlockPos(0, tree.getTrunkHeight(), 0), parameters))
+        IntStream.range(0, branchCount)
+            .mapToObj(
+                branchIndex ->
+                    initializeBranch(
+                        parameters,
+                        tree,
+                        random,
+                        canopy,
+                        branchIndex,
+                        random.nextDouble() * Math.toRadians(45),
+                        branchSeparation))
             .toList();
+    LeafNode.initializeLeafNodes(
+        random, new BlockPos(0, tree.getTrunkHeight(), 0), parameters, canopy);
 
-    int i = 0;
-    while (!branches.isEmpty() && i++ < MAX_BRANCH_ITERATIONS) {
-      branches =
-          branches.stream()
-              .unordered()
-              .parallel()
-              .flatMap(b -> b.iterate(random, parameters, tree))
-              .toList();
-    }
+    GenerationScheduler.shared().run(branches, parameters, tree, MAX_BRANCH_ITERATIONS);
   }
 
   private static @Nonnull IterativeGenerator initializeBranch(
       @Nonnull GiantRedwoodGenerationParameters parameters,
       @Nonnull TreeSpace tree,
       @Nonnull RandomSource random,
+      @Nonnull Canopy canopy,
       int branchIndex,
       double initialBranchAngle,
       double branchSeparation) {
@@ -167,10 +200,10 @@ public class GiantRedwoodGenerator {
     double targetLength =
         parameters
                 .branchHeightDistribution
-                .pdfToFunction(
+                .pdfToOperator(
                     DoubleRange.fromOrigin().spanning(tree.getTrunkHeight()),
                     DoubleRange.from(0.5).to(1.0))
-                .apply((double) slice.y)
+                .applyAsDouble(slice.y)
             * parameters.branchLength.sample(random);
 
     // Find the starting position for the branch. Move out from the tree center along a set
@@ -218,6 +251,7 @@ public class GiantRedwoodGenerator {
         .baseDirection(baseDirection)
         .growthDirection(growthDirection)
         .turnSelectionFunction(GiantRedwoodGenerator::turnSelectionFunction)
+        .canopy(canopy)
         .build();
   }
 
@@ -324,10 +358,68 @@ public class GiantRedwoodGenerator {
       while (r.mappedBlock != null) r = r.mappedBlock;
       return r;
     }
+
+    private static final TreeBlock[] BY_CODE = values();
+
+    /**
+     * @return a compact, non-zero code identifying this block. The code {@code 0} is reserved to
+     *     represent the absence of a block.
+     */
+    public byte code() {
+      return (byte) (ordinal() + 1);
+    }
+
+    /**
+     * @return the {@linkplain #code() code} for the given block, or {@code 0} if the block is
+     *     {@code null}.
+     */
+    public static byte codeOf(@Nullable TreeBlock block) {
+      return block == null ? 0 : block.code();
+    }
+
+    /**
+     * @return the block identified by the given {@linkplain #code() code}, or {@code null} if the
+     *     code is {@code 0}.
+     */
+    public static @Nullable TreeBlock fromCode(byte code) {
+      return code == 0 ? null : BY_CODE[code - 1];
+    }
   }
 
+  /** Receives the blocks of a generated tree in batches. */
   @FunctionalInterface
-  public interface GenerationCollaborator {
+  public interface BulkGenerationCollaborator {
+    /**
+     * Receives a batch of blocks that all lie in the same chunk section. The arrays belong to the
+     * generator and are reused once this method returns, so copy anything that must be kept.
+     *
+     * @param sectionPos the section holding the blocks, as packed by {@link
+     *     net.minecraft.core.SectionPos#asLong(int, int, int)}.
+     * @param positions the world positions of the blocks, as packed by {@link BlockPos#asLong()}.
+     * @param codes the {@linkplain TreeBlock#code() codes} of the blocks, parallel to {@code
+     *     positions}.
+     * @param count the number of blocks in the batch; only the first {@code count} elements of
+     *     each array are meaningful.
+     */
+    void setBlocks(long sectionPos, @Nonnull long[] positions, @Nonnull byte[] codes, int count);
+  }
+
+  /** Receives the blocks of a generated tree one at a time. */
+  @FunctionalInterface
+  public interface GenerationCollaborator extends BulkGenerationCollaborator {
     void setBlock(@Nonnull TreeBlock treeBlock, int x, int y, int z);
+
+    @Override
+    default void setBlocks(
+        long sectionPos, @Nonnull long[] positions, @Nonnull byte[] codes, int count) {
+      for (int i = 0; i < count; i++) {
+        long position = positions[i];
+        setBlock(
+            Objects.requireNonNull(TreeBlock.fromCode(codes[i])),
+            BlockPos.getX(position),
+            BlockPos.getY(position),
+            BlockPos.getZ(position));
+      }
+    }
   }
 }
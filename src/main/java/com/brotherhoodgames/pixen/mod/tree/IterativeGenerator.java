@@ -2,23 +2,39 @@ package com.brotherhoodgames.pixen.mod.tree;
 
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
-import net.minecraft.util.RandomSource;
 
-/** An object that can iteratively generate sections of a tree. */
+/**
+ * An object that can iteratively generate sections of a tree.
+ *
+ * <p>Generators don't see each other's writes while they run: each one reads the tree as it stood
+ * before any of them started, and the blocks it adds are only written to the tree once every
+ * generator has finished, in the order the generators were created. Together with the random
+ * sources described below, this means a tree grows the same way from the same seed however many
+ * threads share the work and however they're scheduled.
+ *
+ * <p>Generators that draw random numbers own the random source they draw from, {@linkplain
+ * net.minecraft.util.RandomSource#fork() forked} from their parent's source when they're created.
+ * Random decisions about individual cells are instead made {@linkplain
+ * com.brotherhoodgames.pixen.mod.util.Randomness#positionalDouble(long, int, int, int, int)
+ * positionally}. Generators never share a random source, so they can be iterated concurrently
+ * without contending for one, and the numbers each generator draws don't depend on how the
+ * iterations of different generators are interleaved.
+ */
 /*package*/ interface IterativeGenerator {
   /**
    * Instructs the generator to add the next sequence of blocks to the given tree space.
    *
-   * @param random a seeded random number source that can be used to build repeatably random
-   *     results.
    * @param parameters the generation parameters that constrain the resulting tree.
-   * @param tree the tree space the generator should query and populate.
+   * @param tree the tree space the generator should query. It doesn't change while generators
+   *     run, and mustn't be written to.
+   * @param writes where the generator records the blocks it adds to the tree. A generator gets the
+   *     same buffer for every iteration, and the buffer is shared with no other generator.
    * @return a potentially empty stream of generators that should continue processing in the next
    *     generator iteration.
    */
   @Nonnull
   Stream<IterativeGenerator> iterate(
-      @Nonnull RandomSource random,
       @Nonnull GiantRedwoodGenerationParameters parameters,
-      @Nonnull TreeSpace tree);
+      @Nonnull TreeSpace tree,
+      @Nonnull TreeWrites writes);
 }
@@ -3,15 +3,25 @@ package com.brotherhoodgames.pixen.mod.tree;
 import static com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.TreeBlock.DEAD_LEAF_SPACE;
 import static com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.TreeBlock.LEAVES;
 
-import java.util.stream.Stream;
+import com.brotherhoodgames.pixen.mod.util.Randomness;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 import javax.annotation.Nonnull;
 import lombok.Builder;
 import net.minecraft.core.BlockPos;
 import net.minecraft.util.RandomSource;
-import org.jetbrains.annotations.NotNull;
 
 @Builder(builderClassName = "Builder")
-/*package*/ class LeafNode implements IterativeGenerator {
+/*package*/ class LeafNode {
+  // The purpose for the positional random values that decide whether a cell drops off the cluster.
+  private static final int DROPOFF_PURPOSE = 0x1EAF;
+
+  /*package*/ static final int SHELL_STRIDE = 4;
+
+  // The shell offset tables built so far, indexed by envelope radius. Only ever replaced by a
+  // larger copy, so readers never need to lock.
+  private static volatile int[][] shells = new int[0][];
+
   int currentEnvelopeRadius;
   int remainingSubNodes;
 
@@ -19,76 +29,103 @@ import org.jetbrains.annotations.NotNull;
   final double radius;
   final double dropoffRate;
 
-  @Override
-  public @Nonnull Stream<IterativeGenerator> iterate(
-      @Nonnull RandomSource random,
-      @Nonnull GiantRedwoodGenerationParameters parameters,
-      @Nonnull TreeSpace tree) {
-    Stream.Builder<IterativeGenerator> remainingGenerators = Stream.builder();
-
-    int xMin = nodeLocation.getX() - currentEnvelopeRadius;
-    int xMax = nodeLocation.getX() + currentEnvelopeRadius;
-    int yMin = nodeLocation.getY() - currentEnvelopeRadius;
-    int yMax = nodeLocation.getY() + currentEnvelopeRadius;
-    int zMin = nodeLocation.getZ() - currentEnvelopeRadius;
-    int zMax = nodeLocation.getZ() + currentEnvelopeRadius;
-
-    for (int y = yMin; y < yMax; y++) {
-      if (y == yMin || y == yMax - 1) {
-        for (int x = xMin; x < xMax; x++)
-          for (int z = zMin; z < zMax; z++) {
-            setBlock(random, tree, x, y, z);
-          }
-      } else {
-        for (int x = xMin; x < xMax; x++) {
-          setBlock(random, tree, x, y, zMin);
-          setBlock(random, tree, x, y, zMax - 1);
-        }
-        for (int z = zMin + 1; z < zMax - 1; z++) {
-          setBlock(random, tree, xMin, y, z);
-          setBlock(random, tree, xMax - 1, y, z);
-        }
-      }
-    }
-
-    currentEnvelopeRadius++;
-    if (currentEnvelopeRadius <= Math.ceil(radius)) remainingGenerators.add(this);
+  /**
+   * Grows the whole cluster, one shell at a time from the inside out. The cluster reads and writes
+   * only the cells within its {@linkplain #outerEnvelopeRadius() envelope} and their immediate
+   * neighbours, and nothing else may write to those cells while it grows: the cluster doesn't
+   * guard its writes against concurrent ones.
+   */
+  void grow(@Nonnull TreeSpace tree) {
+    for (int last = outerEnvelopeRadius(); currentEnvelopeRadius <= last; currentEnvelopeRadius++)
+      fillShell(tree, shellOffsets(currentEnvelopeRadius));
+  }
 
-    return remainingGenerators.build();
+  /**
+   * @return the envelope radius of the cluster's outermost shell. Every cell the cluster fills has
+   *     offsets from the node in {@code [-outerEnvelopeRadius(), outerEnvelopeRadius())} on each
+   *     axis.
+   */
+  int outerEnvelopeRadius() {
+    return Math.max(currentEnvelopeRadius, (int) Math.ceil(radius));
   }
 
-  private void setBlock(
-      @NotNull RandomSource random, @NotNull TreeSpace tree, int x, int y, int z) {
-    TreeSpace.Cell cell = tree.cell(x, y, z);
-    if (cell.distanceToSqr(nodeLocation) <= radius * radius
-        && cell.isEmpty()
-        && cell.isTouching(b -> !b.isEmpty())
-        && cell.isSurroundedBy(b -> b != DEAD_LEAF_SPACE)) {
+  /**
+   * Grows leaves into every cell of the given shell that lies within the cluster's radius, is
+   * empty, touches a filled cell and doesn't touch any dead leaf space.
+   *
+   * @param shell offsets from the node, as produced by {@link #shellOffsets(int)}.
+   */
+  private void fillShell(@Nonnull TreeSpace tree, @Nonnull int[] shell) {
+    final double radiusSqr = radius * radius;
+    final int nodeX = nodeLocation.getX(), nodeY = nodeLocation.getY();
+    final int nodeZ = nodeLocation.getZ();
+    final int nodeSx = tree.treeCoordinateToUnsafeSliceIndex(nodeX);
+    final int nodeSz = tree.treeCoordinateToUnsafeSliceIndex(nodeZ);
+    final byte deadLeafSpace = DEAD_LEAF_SPACE.code();
+
+    for (int i = 0; i < shell.length; i += SHELL_STRIDE) {
+      if (shell[i + 3] > radiusSqr) continue;
+
+      int dx = shell[i], y = nodeY + shell[i + 1], dz = shell[i + 2];
+      if (!tree.isGrowthCandidateFromSliceCoords(nodeSx + dx, y, nodeSz + dz, deadLeafSpace))
+        continue;
+
       GiantRedwoodGenerator.TreeBlock block;
-      if (random.nextDouble() < dropoffRate) {
+      if (Randomness.positionalDouble(tree.seed, nodeX + dx, y, nodeZ + dz, DROPOFF_PURPOSE)
+          < dropoffRate) {
         block = DEAD_LEAF_SPACE;
       } else {
         block = LEAVES;
       }
-      cell.setIfEmpty(block);
+      // The cell was just seen to be empty, and no one else writes near a growing cluster
+      tree.setFromSliceCoords(nodeSx + dx, y, nodeSz + dz, block);
     }
   }
 
-  static @Nonnull Stream<IterativeGenerator> initializeAndStreamLeafNodes(
-      @Nonnull RandomSource random,
-      @Nonnull BlockPos location,
-      @Nonnull GiantRedwoodGenerationParameters parameters) {
-    Stream.Builder<IterativeGenerator> r = Stream.builder();
-    initializeLeafNodes(random, location, parameters, r);
-    return r.build();
+  /**
+   * @return the offsets from a node of every cell on the surface of the cube that spans {@code
+   *     [-envelopeRadius, envelopeRadius)} on each axis, as {@value #SHELL_STRIDE} {@code int}s per
+   *     cell: the x, y and z offsets, then the squared distance from the node. Cells are listed in
+   *     the same order as the tree's storage lays them out (by y, then x, then z), so filling a
+   *     shell walks memory forwards. Tables are built once per radius and shared; callers must not
+   *     modify them.
+   */
+  /*package*/ static @Nonnull int[] shellOffsets(int envelopeRadius) {
+    int[][] shells = LeafNode.shells;
+    if (envelopeRadius < shells.length) return shells[envelopeRadius];
+
+    synchronized (LeafNode.class) {
+      shells = LeafNode.shells;
+      if (envelopeRadius >= shells.length) {
+        int[][] grown = Arrays.copyOf(shells, envelopeRadius + 1);
+        for (int r = shells.length; r < grown.length; r++) grown[r] = buildShellOffsets(r);
+        LeafNode.shells = shells = grown;
+      }
+      return shells[envelopeRadius];
+    }
+  }
+
+  private static @Nonnull int[] buildShellOffsets(int envelopeRadius) {
+    final int min = -envelopeRadius, max = envelopeRadius - 1;
+    IntStream.Builder offsets = IntStream.builder();
+    for (int dy = min; dy <= max; dy++)
+      for (int dx = min; dx <= max; dx++) {
+        // Inside the cube's top and bottom faces and its x-facing sides every cell is on the
+        // surface; elsewhere only the first and last cells of the row are.
+        boolean face = dy == min || dy == max || dx == min || dx == max;
+        for (int dz = min; dz <= max; dz = face || dz == max ? dz + 1 : max)
+          offsets.add(dx).add(dy).add(dz).add(dx * dx + dy * dy + dz * dz);
+      }
+    return offsets.build().toArray();
   }
 
+  /** Creates a leaf cluster at the given location and adds it to the canopy. */
   static void initializeLeafNodes(
       @Nonnull RandomSource random,
       @Nonnull BlockPos location,
       @Nonnull GiantRedwoodGenerationParameters parameters,
-      @Nonnull Stream.Builder<IterativeGenerator> sink) {
-    sink.add(
+      @Nonnull Canopy canopy) {
+    canopy.add(
         LeafNode.builder()
             .nodeLocation(location)
             .radius(parameters.leafClusterRadius.sample(random))
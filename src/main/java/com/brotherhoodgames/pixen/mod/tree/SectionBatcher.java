@@ -0,0 +1,87 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+
+/**
+ * Groups blocks by the chunk section they fall in and passes them to a {@link
+ * GiantRedwoodGenerator.BulkGenerationCollaborator} a section at a time.
+ *
+ * <p>Blocks are expected to arrive from the ground up. Every section in a horizontal layer of
+ * sections is held until the first block above the layer arrives (or until {@link #flush()}), and
+ * then the whole layer is passed on, so each section is delivered in a single batch and sections
+ * are delivered bottom-up. Blocks that arrive out of order still reach the collaborator, but a
+ * section may then be split across several batches.
+ */
+/*package*/ final class SectionBatcher {
+  private static final int INITIAL_BATCH_CAPACITY = 256;
+
+  private final @Nonnull GiantRedwoodGenerator.BulkGenerationCollaborator collaborator;
+  private final Map<Long, Batch> layer = new LinkedHashMap<>();
+  private final ArrayDeque<Batch> spareBatches = new ArrayDeque<>();
+
+  private int layerSectionY = Integer.MIN_VALUE;
+  private @Nullable Batch lastBatch;
+
+  SectionBatcher(@Nonnull GiantRedwoodGenerator.BulkGenerationCollaborator collaborator) {
+    this.collaborator = collaborator;
+  }
+
+  /** Adds the block with the given code at the given world coordinates. */
+  void add(byte code, int x, int y, int z) {
+    int sectionY = SectionPos.blockToSectionCoord(y);
+    if (sectionY != layerSectionY) {
+      flush();
+      layerSectionY = sectionY;
+    }
+
+    long section =
+        SectionPos.asLong(
+            SectionPos.blockToSectionCoord(x), sectionY, SectionPos.blockToSectionCoord(z));
+    // Neighboring blocks almost always share a section, so most blocks skip the map entirely.
+    Batch batch = lastBatch;
+    if (batch == null || batch.section != section) {
+      batch = layer.get(section);
+      if (batch == null) {
+        batch = spareBatches.isEmpty() ? new Batch() : spareBatches.pop();
+        batch.section = section;
+        layer.put(section, batch);
+      }
+      lastBatch = batch;
+    }
+    batch.add(BlockPos.asLong(x, y, z), code);
+  }
+
+  /** Passes every block added so far on to the collaborator. */
+  void flush() {
+    for (Batch batch : layer.values()) {
+      collaborator.setBlocks(batch.section, batch.positions, batch.codes, batch.count);
+      batch.count = 0;
+      spareBatches.push(batch);
+    }
+    layer.clear();
+    lastBatch = null;
+  }
+
+  private static final class Batch {
+    long section;
+    long[] positions = new long[INITIAL_BATCH_CAPACITY];
+    byte[] codes = new byte[INITIAL_BATCH_CAPACITY];
+    int count;
+
+    void add(long position, byte code) {
+      if (count == positions.length) {
+        positions = Arrays.copyOf(positions, count * 2);
+        codes = Arrays.copyOf(codes, count * 2);
+      }
+      positions[count] = position;
+      codes[count++] = code;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nonnull;
+
+/**
+ * A coarse, incrementally maintained summary of where the filled cells of a {@link TreeSpace} are.
+ * The space is divided into cubic bins of {@link #BIN_SIZE} cells on a side; each bin keeps the
+ * number of filled cells it contains and the sum of their slice coordinates (their first moment),
+ * from which the bin's centroid follows. Updating a bin is a handful of atomic additions, and a
+ * query over a box only has to visit the few bins that overlap it, however many cells are filled.
+ *
+ * <p>Bins are allocated a chunk at a time, the first time a cell in the chunk is filled. Chunks
+ * cover the same cells as the chunks of the {@link TreeOccupancy} that owns the field, rounded out
+ * to whole bins: a layer of bins for chunks of a single slice, or the eight bins of a brick.
+ */
+/*package*/ final class TreeMomentField {
+  private static final VarHandle SUMS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private static final int BIN_BITS = 3;
+  /*package*/ static final int BIN_SIZE = 1 << BIN_BITS;
+
+  // Each bin holds its cell count followed by the sums of its cells' x, y and z slice coordinates.
+  private static final int COUNT = 0, SUM_X = 1, SUM_Y = 2, SUM_Z = 3, STRIDE = 4;
+
+  private final int binsPerSide;
+  private final int binLayers;
+  private final int chunkWidth;
+  private final int chunkHeight;
+  private final int chunksPerSide;
+  private final AtomicReferenceArray<long[]> chunks;
+
+  /**
+   * @param sliceSize the number of cells along each horizontal edge of a slice.
+   * @param maxHeight the maximum number of slices in the space.
+   * @param chunkWidth the number of cells along each horizontal edge of a chunk. Must be a multiple
+   *     of {@link #BIN_SIZE}, unless chunks span whole slices.
+   * @param chunkHeight the number of slices spanned by a chunk. Must be a multiple of {@link
+   *     #BIN_SIZE}, or {@code 1}.
+   */
+  TreeMomentField(int sliceSize, int maxHeight, int chunkWidth, int chunkHeight) {
+    this.binsPerSide = (sliceSize + BIN_SIZE - 1) >> BIN_BITS;
+    this.binLayers = (maxHeight + BIN_SIZE - 1) >> BIN_BITS;
+    this.chunkWidth = (chunkWidth + BIN_SIZE - 1) >> BIN_BITS;
+    this.chunkHeight = (chunkHeight + BIN_SIZE - 1) >> BIN_BITS;
+    this.chunksPerSide = (binsPerSide + this.chunkWidth - 1) / this.chunkWidth;
+    this.chunks =
+        new AtomicReferenceArray<>(
+            (binLayers + this.chunkHeight - 1) / this.chunkHeight * chunksPerSide * chunksPerSide);
+  }
+
+  /** Records that the cell at the given slice coordinates was filled. */
+  void add(int sliceXIndex, int y, int sliceZIndex) {
+    update(sliceXIndex, y, sliceZIndex, 1);
+  }
+
+  /** Records that the cell at the given slice coordinates was emptied. */
+  void remove(int sliceXIndex, int y, int sliceZIndex) {
+    update(sliceXIndex, y, sliceZIndex, -1);
+  }
+
+  private void update(int sliceXIndex, int y, int sliceZIndex, int sign) {
+    int bx = sliceXIndex >> BIN_BITS, by = y >> BIN_BITS, bz = sliceZIndex >> BIN_BITS;
+    long[] chunk = chunk(chunkIndex(bx, by, bz));
+    int bin = binOffset(bx, by, bz);
+    SUMS.getAndAdd(chunk, bin + COUNT, (long) sign);
+    SUMS.getAndAdd(chunk, bin + SUM_X, (long) sign * sliceXIndex);
+    SUMS.getAndAdd(chunk, bin + SUM_Y, (long) sign * y);
+    SUMS.getAndAdd(chunk, bin + SUM_Z, (long) sign * sliceZIndex);
+  }
+
+  /**
+   * @return a new {@link BinCursor} over this field, not yet positioned on any bin. Bin cursors are
+   *     not thread-safe; each thread should create its own.
+   */
+  @Nonnull
+  BinCursor binCursor() {
+    return new BinCursor();
+  }
+
+  private int chunkIndex(int binX, int binY, int binZ) {
+    return ((binY / chunkHeight) * chunksPerSide + binX / chunkWidth) * chunksPerSide
+        + binZ / chunkWidth;
+  }
+
+  private int binOffset(int binX, int binY, int binZ) {
+    return ((binY % chunkHeight * chunkWidth + binX % chunkWidth) * chunkWidth + binZ % chunkWidth)
+        * STRIDE;
+  }
+
+  private @Nonnull long[] chunk(int chunk) {
+    long[] bins = chunks.get(chunk);
+    if (bins == null
+        && !chunks.compareAndSet(
+            chunk, null, bins = new long[chunkHeight * chunkWidth * chunkWidth * STRIDE]))
+      bins = chunks.get(chunk);
+    return bins;
+  }
+
+  /**
+   * A reusable walk over the non-empty bins that overlap a box of slice coordinates. Bins are only
+   * partially covered by the box at its edges, so a walk may report cells that lie just outside it.
+   * Walking doesn't allocate anything, so a cursor can be kept and {@linkplain #reset reset} for
+   * each query.
+   */
+  final class BinCursor {
+    private int fromBx, toBx, fromBz, toBz, toBy;
+    private int bx, by, bz;
+    private long count, sumSliceX, sumY, sumSliceZ;
+
+    private BinCursor() {
+      reset(0, 0, 0, -1, -1, -1);
+    }
+
+    /**
+     * Restarts this cursor on the box between the given (inclusive) slice coordinates. The cursor
+     * isn't on a bin until {@link #next()} is called.
+     *
+     * @return {@code this} instance for method chaining.
+     */
+    @Nonnull
+    BinCursor reset(
+        int minSliceXIndex,
+        int minY,
+        int minSliceZIndex,
+        int maxSliceXIndex,
+        int maxY,
+        int maxSliceZIndex) {
+      fromBx = Math.max(0, minSliceXIndex >> BIN_BITS);
+      toBx = Math.min(binsPerSide - 1, maxSliceXIndex >> BIN_BITS);
+      fromBz = Math.max(0, minSliceZIndex >> BIN_BITS);
+      toBz = Math.min(binsPerSide - 1, maxSliceZIndex >> BIN_BITS);
+      toBy = Math.min(binLayers - 1, maxY >> BIN_BITS);
+      // Start just before the first bin, so that the first call to next() steps onto it
+      by = Math.max(0, minY >> BIN_BITS) - 1;
+      bx = toBx;
+      bz = toBz;
+      if (fromBx > toBx || fromBz > toBz) by = toBy;
+      return this;
+    }
+
+    /**
+     * Moves this cursor to the next non-empty bin in its box.
+     *
+     * @return {@code true} if the cursor is on a bin, or {@code false} if the walk is finished.
+     */
+    boolean next() {
+      while (true) {
+        if (bz < toBz) bz++;
+        else if (bx < toBx) {
+          bx++;
+          bz = fromBz;
+        } else if (by < toBy) {
+          by++;
+          bx = fromBx;
+          bz = fromBz;
+        } else return false;
+
+        long[] chunk = chunks.get(chunkIndex(bx, by, bz));
+        if (chunk == null) continue;
+
+        int bin = binOffset(bx, by, bz);
+        count = (long) SUMS.getVolatile(chunk, bin + COUNT);
+        if (count > 0) {
+          sumSliceX = (long) SUMS.getVolatile(chunk, bin + SUM_X);
+          sumY = (long) SUMS.getVolatile(chunk, bin + SUM_Y);
+          sumSliceZ = (long) SUMS.getVolatile(chunk, bin + SUM_Z);
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return the number of filled cells in the current bin.
+     */
+    long count() {
+      return count;
+    }
+
+    /**
+     * @return the sum of the slice x indices of the filled cells in the current bin.
+     */
+    long sumSliceX() {
+      return sumSliceX;
+    }
+
+    /**
+     * @return the sum of the y coordinates of the filled cells in the current bin.
+     */
+    long sumY() {
+      return sumY;
+    }
+
+    /**
+     * @return the sum of the slice z indices of the filled cells in the current bin.
+     */
+    long sumSliceZ() {
+      return sumSliceZ;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+
+/**
+ * Bookkeeping that a {@link TreeSpace} updates alongside its {@link TreeStorage} on every write:
+ * bitsets marking which cells are filled, the bounding box of the filled cells in each slice and in
+ * the whole space, a {@link TreeMomentField} of the filled cells, and a running count of every kind
+ * of {@link GiantRedwoodGenerator.TreeBlock} in the space.
+ *
+ * <p>The bitsets are allocated a chunk at a time, the first time a cell in the chunk is filled. A
+ * chunk is a box of cells whose shape suits the storage: a whole slice for storage that reserves
+ * every slice up front, or a brick for storage that only allocates the bricks the tree reaches, so
+ * that the bookkeeping stays as sparse as the blocks it describes.
+ *
+ * <p>The bitsets let scans for filled cells skip 64 empty cells at a time, and the bounding boxes
+ * let them skip everything outside the region the tree actually reaches. They are kept without
+ * locks, so when two threads race to fill and empty the same cell a bit may be left set for a cell
+ * that ends up empty; a bit is never left clear for a filled cell. Bounding boxes only ever grow,
+ * so emptying a cell on the edge of a box doesn't shrink it. Scans must therefore still check the
+ * cells they visit. The block counts and moments are exact.
+ */
+/*package*/ final class TreeOccupancy {
+  private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  /*package*/ static final int MIN_X = 0, MAX_X = 1, MIN_Z = 2, MAX_Z = 3, MIN_Y = 4, MAX_Y = 5;
+  private static final int SLICE_BOUNDS = 4, SPACE_BOUNDS = 6;
+
+  private final int chunkWidth;
+  private final int chunkHeight;
+  private final int chunksPerSide;
+  private final int wordsPerChunk;
+  private final AtomicReferenceArray<long[]> chunks;
+  private final AtomicIntegerArray sliceBounds;
+  private final AtomicIntegerArray spaceBounds;
+  private final LongAdder[] blockCounts;
+  private final TreeMomentField moments;
+
+  /**
+   * @param sliceSize the number of cells along each horizontal edge of a slice.
+   * @param maxHeight the maximum number of slices in the space.
+   * @param chunkWidth the number of cells along each horizontal edge of a chunk.
+   * @param chunkHeight the number of slices spanned by a chunk.
+   */
+  TreeOccupancy(int sliceSize, int maxHeight, int chunkWidth, int chunkHeight) {
+    this.chunkWidth = chunkWidth;
+    this.chunkHeight = chunkHeight;
+    this.chunksPerSide = (sliceSize + chunkWidth - 1) / chunkWidth;
+    this.wordsPerChunk = (chunkWidth * chunkWidth * chunkHeight + Long.SIZE - 1) / Long.SIZE;
+    this.chunks =
+        new AtomicReferenceArray<>(
+            (maxHeight + chunkHeight - 1) / chunkHeight * chunksPerSide * chunksPerSide);
+    this.sliceBounds = emptyBounds(maxHeight * SLICE_BOUNDS);
+    this.spaceBounds = emptyBounds(SPACE_BOUNDS);
+    this.blockCounts = new LongAdder[GiantRedwoodGenerator.TreeBlock.values().length + 1];
+    for (int i = 0; i < blockCounts.length; i++) blockCounts[i] = new LongAdder();
+    this.moments = new TreeMomentField(sliceSize, maxHeight, chunkWidth, chunkHeight);
+  }
+
+  /**
+   * Records that the block code at the given slice coordinates changed from {@code previous} to
+   * {@code code}. Must be called after the write has been made to the storage.
+   *
+   * @param recheck the storage that was written to; used to repair the occupancy bit if a
+   *     concurrent write filled the cell again while it was being cleared.
+   */
+  void recordWrite(
+      int sliceXIndex,
+      int y,
+      int sliceZIndex,
+      byte previous,
+      byte code,
+      @Nonnull TreeStorage recheck) {
+    if (previous == code) return;
+    blockCounts[previous].decrement();
+    blockCounts[code].increment();
+
+    boolean wasFilled = isFilled(previous), isFilled = isFilled(code);
+    if (wasFilled == isFilled) return;
+
+    if (isFilled) moments.add(sliceXIndex, y, sliceZIndex);
+    else moments.remove(sliceXIndex, y, sliceZIndex);
+
+    int chunk = chunkIndex(sliceXIndex, y, sliceZIndex / chunkWidth);
+    int bit = bitIndex(sliceXIndex, y, sliceZIndex % chunkWidth);
+    int word = bit >>> 6;
+    long mask = 1L << bit;
+    if (isFilled) {
+      WORDS.getAndBitwiseOr(chunk(chunk), word, mask);
+
+      int base = y * SLICE_BOUNDS;
+      widen(sliceBounds, base + MIN_X, base + MAX_X, sliceXIndex);
+      widen(sliceBounds, base + MIN_Z, base + MAX_Z, sliceZIndex);
+      widen(spaceBounds, MIN_X, MAX_X, sliceXIndex);
+      widen(spaceBounds, MIN_Y, MAX_Y, y);
+      widen(spaceBounds, MIN_Z, MAX_Z, sliceZIndex);
+    } else {
+      long[] words = chunk(chunk);
+      WORDS.getAndBitwiseAnd(words, word, ~mask);
+      if (isFilled(recheck.get(sliceXIndex, y, sliceZIndex)))
+        WORDS.getAndBitwiseOr(words, word, mask);
+    }
+  }
+
+  /**
+   * @return the moment field summarizing where the filled cells in the space are.
+   */
+  @Nonnull
+  TreeMomentField moments() {
+    return moments;
+  }
+
+  /**
+   * @return the number of cells in the space that currently hold the given block.
+   */
+  long count(@Nonnull GiantRedwoodGenerator.TreeBlock block) {
+    return blockCounts[block.code()].sum();
+  }
+
+  /**
+   * @return the number of cells in the space that currently hold a filled block.
+   */
+  long filledCount() {
+    long total = 0;
+    for (GiantRedwoodGenerator.TreeBlock block : GiantRedwoodGenerator.TreeBlock.values())
+      if (!block.isEmpty()) total += count(block);
+    return total;
+  }
+
+  /**
+   * @param bound one of {@link #MIN_X}, {@link #MAX_X}, {@link #MIN_Z} or {@link #MAX_Z}.
+   * @return the given (inclusive) slice index bound of the filled cells in slice {@code y}. When
+   *     no cell in the slice has been filled, every minimum is greater than every maximum.
+   */
+  int sliceBound(int y, int bound) {
+    return sliceBounds.get(y * SLICE_BOUNDS + bound);
+  }
+
+  /**
+   * @param bound one of {@link #MIN_X}, {@link #MAX_X}, {@link #MIN_Y}, {@link #MAX_Y}, {@link
+   *     #MIN_Z} or {@link #MAX_Z}.
+   * @return the given (inclusive) slice coordinate bound of the filled cells in the whole space.
+   *     When no cell has been filled, every minimum is greater than every maximum.
+   */
+  int spaceBound(int bound) {
+    return spaceBounds.get(bound);
+  }
+
+  /**
+   * Calls the given visitor for every cell in the slice whose occupancy bit is set, in storage
+   * order. Only the words covering the slice's bounding box are examined.
+   */
+  void forEachOccupied(int y, @Nonnull SliceCellVisitor visitor) {
+    int minX = sliceBound(y, MIN_X), maxX = sliceBound(y, MAX_X);
+    int minZ = sliceBound(y, MIN_Z), maxZ = sliceBound(y, MAX_Z);
+    if (minX > maxX) return;
+
+    // Each row of the slice is split between the chunks it crosses; within a chunk, the row's
+    // cells are a single run of bits
+    for (int sx = minX; sx <= maxX; sx++)
+      for (int chunkZ = minZ / chunkWidth; chunkZ <= maxZ / chunkWidth; chunkZ++) {
+        long[] words = chunks.get(chunkIndex(sx, y, chunkZ));
+        if (words == null) continue;
+
+        int chunkMinZ = chunkZ * chunkWidth;
+        int rowBit = bitIndex(sx, y, 0);
+        int fromBit = rowBit + Math.max(minZ - chunkMinZ, 0);
+        int toBit = rowBit + Math.min(maxZ - chunkMinZ, chunkWidth - 1);
+        for (int word = fromBit >>> 6; word <= toBit >>> 6; word++) {
+          long bits = (long) WORDS.getVolatile(words, word);
+          if (word == fromBit >>> 6) bits &= -1L << fromBit;
+          if (word == toBit >>> 6) bits &= -1L >>> ~toBit;
+          while (bits != 0) {
+            int bit = (word << 6) + Long.numberOfTrailingZeros(bits);
+            visitor.visit(sx, y, chunkMinZ + bit - rowBit);
+            bits &= bits - 1;
+          }
+        }
+      }
+  }
+
+  private int chunkIndex(int sliceXIndex, int y, int chunkZ) {
+    return ((y / chunkHeight) * chunksPerSide + sliceXIndex / chunkWidth) * chunksPerSide + chunkZ;
+  }
+
+  private int bitIndex(int sliceXIndex, int y, int chunkZOffset) {
+    return ((y % chunkHeight) * chunkWidth + sliceXIndex % chunkWidth) * chunkWidth + chunkZOffset;
+  }
+
+  private @Nonnull long[] chunk(int chunk) {
+    long[] words = chunks.get(chunk);
+    if (words == null && !chunks.compareAndSet(chunk, null, words = new long[wordsPerChunk]))
+      words = chunks.get(chunk);
+    return words;
+  }
+
+  private static @Nonnull AtomicIntegerArray emptyBounds(int length) {
+    AtomicIntegerArray bounds = new AtomicIntegerArray(length);
+    for (int i = 0; i < length; i += 2) {
+      bounds.set(i, Integer.MAX_VALUE);
+      bounds.set(i + 1, Integer.MIN_VALUE);
+    }
+    return bounds;
+  }
+
+  private static void widen(@Nonnull AtomicIntegerArray bounds, int min, int max, int value) {
+    if (value < bounds.get(min)) bounds.accumulateAndGet(min, value, Math::min);
+    if (value > bounds.get(max)) bounds.accumulateAndGet(max, value, Math::max);
+  }
+
+  private static boolean isFilled(byte code) {
+    return code != 0 && !GiantRedwoodGenerator.TreeBlock.fromCode(code).isEmpty();
+  }
+
+  /** Receives the slice coordinates of cells visited by a scan. */
+  @FunctionalInterface
+  interface SliceCellVisitor {
+    void visit(int sliceXIndex, int y, int sliceZIndex);
+  }
+}
@@ -1,23 +1,21 @@
 package com.brotherhoodgames.pixen.mod.tree;
 
-import static com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.MAX_TREE_HEIGHT;
 import static com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.TreeBlock.AIR;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
-import java.util.List;
+import com.brotherhoodgames.pixen.mod.util.Randomness;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 import net.minecraft.core.BlockPos;
-import net.minecraft.util.RandomSource;
 import net.minecraft.world.phys.Vec2;
 import net.minecraft.world.phys.Vec3;
 
@@ -31,19 +29,52 @@ public class TreeSpace {
   /*package*/ final double trunkBaseRadius;
   /*package*/ final int maxTreeRadius;
   /*package*/ final int maxSliceIndex;
+  /*package*/ final int maxTreeHeight;
+  /*package*/ final long seed;
 
-  private final ImmutableList<Object> locks =
-      IntStream.range(0, 10).mapToObj(i -> new Object()).collect(ImmutableList.toImmutableList());
+  // Purposes for positional random values drawn by cells.
+  private static final int JITTER_X = 0x4A11, JITTER_Y = 0x4A12, JITTER_Z = 0x4A13;
 
-  private final List<GiantRedwoodGenerator.TreeBlock[][]> slices;
+  // Whether each block code, including the 0 of a cell without a block, counts as empty.
+  private static final boolean[] EMPTY_CODES = emptyCodes();
+
+  private final TreeStorage storage;
+  private final TreeOccupancy occupancy;
   private int trunkHeight;
 
   /*package*/ TreeSpace(double trunkBaseRadius) {
+    this(trunkBaseRadius, Backend.FLAT);
+  }
+
+  /*package*/ TreeSpace(double trunkBaseRadius, @Nonnull Backend backend) {
+    this(trunkBaseRadius, backend, 0);
+  }
+
+  /**
+   * @param seed the seed for {@linkplain Randomness#positionalLong(long, int, int, int, int)
+   *     positional} random decisions made about individual cells of the space.
+   */
+  /*package*/ TreeSpace(double trunkBaseRadius, @Nonnull Backend backend, long seed) {
     this.trunkBaseRadius = trunkBaseRadius;
-    this.maxTreeRadius =
-        (int) Math.min(GiantRedwoodGenerator.MAX_TREE_RADIUS, Math.ceil(trunkBaseRadius * 6));
+    this.seed = seed;
+    this.maxTreeRadius = (int) Math.min(backend.maxTreeRadius, Math.ceil(trunkBaseRadius * 6));
     this.maxSliceIndex = maxTreeRadius * 2 + 1;
-    this.slices = Lists.newArrayList();
+    this.maxTreeHeight = backend.maxTreeHeight;
+    this.storage =
+        switch (backend) {
+          case FLAT -> new FlatTreeStorage(maxSliceIndex, maxTreeHeight);
+          case BRICKED -> new BrickedTreeStorage(maxSliceIndex, maxTreeHeight);
+        };
+    this.occupancy =
+        switch (backend) {
+          case FLAT -> new TreeOccupancy(maxSliceIndex, maxTreeHeight, maxSliceIndex, 1);
+          case BRICKED ->
+              new TreeOccupancy(
+                  maxSliceIndex,
+                  maxTreeHeight,
+                  BrickedTreeStorage.BRICK_SIZE,
+                  BrickedTreeStorage.BRICK_SIZE);
+        };
   }
 
   /**
@@ -183,19 +214,15 @@ public class TreeSpace {
         && sliceZIndex >= 0
         && sliceZIndex < maxSliceIndex
         && treeY >= 0
-        && treeY < MAX_TREE_HEIGHT;
-  }
-
-  private @Nonnull Object getSyncLockFromSliceCoords(int sliceXIndex, int treeY, int sliceZIndex) {
-    int hash = Integer.hashCode(sliceXIndex + treeY + sliceZIndex);
-    return locks.get(hash % locks.size());
+        && treeY < maxTreeHeight;
   }
 
   /*package*/ @Nullable
   GiantRedwoodGenerator.TreeBlock getFromSliceCoords(int sliceXIndex, int treeY, int sliceZIndex) {
-    if (treeY >= slices.size() || !areValidSliceIndices(sliceXIndex, treeY, sliceZIndex))
-      return null;
-    else return slices.get(treeY)[sliceXIndex][sliceZIndex];
+    if (!areValidSliceIndices(sliceXIndex, treeY, sliceZIndex)) return null;
+    else
+      return GiantRedwoodGenerator.TreeBlock.fromCode(
+          storage.get(sliceXIndex, treeY, sliceZIndex));
   }
 
   /*package*/ @Nullable
@@ -206,18 +233,98 @@ public class TreeSpace {
       @Nullable GiantRedwoodGenerator.TreeBlock block) {
     if (!areValidSliceIndices(sliceXIndex, treeY, sliceZIndex)) return null;
     else {
-      if (treeY >= slices.size()) slice(treeY).allocate();
+      storage.allocateThrough(treeY);
 
-      GiantRedwoodGenerator.TreeBlock prev;
-      synchronized (getSyncLockFromSliceCoords(sliceXIndex, treeY, sliceZIndex)) {
-        prev = slices.get(treeY)[sliceXIndex][sliceZIndex];
-        slices.get(treeY)[sliceXIndex][sliceZIndex] = block;
-      }
+      byte code = GiantRedwoodGenerator.TreeBlock.codeOf(block);
+      byte previous = storage.set(sliceXIndex, treeY, sliceZIndex, code);
+      occupancy.recordWrite(sliceXIndex, treeY, sliceZIndex, previous, code, storage);
+      return GiantRedwoodGenerator.TreeBlock.fromCode(previous);
+    }
+  }
 
-      return prev;
+  /*package*/ @Nullable
+  GiantRedwoodGenerator.TreeBlock setIfEmptyFromSliceCoords(
+      int sliceXIndex,
+      int treeY,
+      int sliceZIndex,
+      @Nullable GiantRedwoodGenerator.TreeBlock block) {
+    if (!areValidSliceIndices(sliceXIndex, treeY, sliceZIndex)) return null;
+    else {
+      storage.allocateThrough(treeY);
+
+      // Uncontended, this is a single compare-and-set; the loop only repeats when another thread
+      // changes the cell between the read and the write.
+      byte code = GiantRedwoodGenerator.TreeBlock.codeOf(block);
+      for (; ; ) {
+        byte prev = storage.get(sliceXIndex, treeY, sliceZIndex);
+        GiantRedwoodGenerator.TreeBlock previous = GiantRedwoodGenerator.TreeBlock.fromCode(prev);
+        if (previous != null && !previous.isEmpty()) return previous;
+        if (storage.compareAndSet(sliceXIndex, treeY, sliceZIndex, prev, code)) {
+          occupancy.recordWrite(sliceXIndex, treeY, sliceZIndex, prev, code, storage);
+          return previous;
+        }
+      }
     }
   }
 
+  /*package*/ byte codeFromSliceCoords(int sliceXIndex, int treeY, int sliceZIndex) {
+    if (!areValidSliceIndices(sliceXIndex, treeY, sliceZIndex)) return 0;
+    else return storage.get(sliceXIndex, treeY, sliceZIndex);
+  }
+
+  /**
+   * Decides whether a cell can grow into its surroundings: it must be valid and {@linkplain
+   * Cursor#isEmpty() empty}, {@linkplain Cursor#isTouchingFilled() touch} at least one filled cell,
+   * and touch no cell holding the block with the given code. This is the same test as {@code
+   * isEmpty() && isTouchingFilled() && isSurroundedBy(b -> b.code() != excludedCode)} on a {@link
+   * Cursor}, made with one read of each neighbour straight from storage.
+   *
+   * @param excludedCode a non-zero {@linkplain GiantRedwoodGenerator.TreeBlock#code() block code}.
+   */
+  /*package*/ boolean isGrowthCandidateFromSliceCoords(
+      int sliceXIndex, int treeY, int sliceZIndex, byte excludedCode) {
+    if (!areValidSliceIndices(sliceXIndex, treeY, sliceZIndex)
+        || !EMPTY_CODES[storage.get(sliceXIndex, treeY, sliceZIndex)]) return false;
+
+    // Missing neighbours count as AIR, like they do for cursors
+    final int max = maxSliceIndex - 1;
+    byte north = sliceZIndex > 0 ? storage.get(sliceXIndex, treeY, sliceZIndex - 1) : 0;
+    byte east = sliceXIndex < max ? storage.get(sliceXIndex + 1, treeY, sliceZIndex) : 0;
+    byte south = sliceZIndex < max ? storage.get(sliceXIndex, treeY, sliceZIndex + 1) : 0;
+    byte west = sliceXIndex > 0 ? storage.get(sliceXIndex - 1, treeY, sliceZIndex) : 0;
+    byte up = treeY < maxTreeHeight - 1 ? storage.get(sliceXIndex, treeY + 1, sliceZIndex) : 0;
+    byte down = treeY > 0 ? storage.get(sliceXIndex, treeY - 1, sliceZIndex) : 0;
+
+    if (north == excludedCode
+        || east == excludedCode
+        || south == excludedCode
+        || west == excludedCode
+        || up == excludedCode
+        || down == excludedCode) return false;
+    return !(EMPTY_CODES[north]
+        && EMPTY_CODES[east]
+        && EMPTY_CODES[south]
+        && EMPTY_CODES[west]
+        && EMPTY_CODES[up]
+        && EMPTY_CODES[down]);
+  }
+
+  private static @Nonnull boolean[] emptyCodes() {
+    GiantRedwoodGenerator.TreeBlock[] blocks = GiantRedwoodGenerator.TreeBlock.values();
+    boolean[] empty = new boolean[blocks.length + 1];
+    empty[0] = true;
+    for (GiantRedwoodGenerator.TreeBlock block : blocks) empty[block.code()] = block.isEmpty();
+    return empty;
+  }
+
+  /**
+   * @return a new {@link Cursor} positioned at the tree's origin. Cursors are not thread-safe; each
+   *     thread should create its own.
+   */
+  public @Nonnull Cursor cursor() {
+    return new Cursor(this);
+  }
+
   @Nonnull
   Slice baseSlice() {
     return slice(0);
@@ -242,25 +349,161 @@ public class TreeSpace {
 
   @Nonnull
   Stream<Cell> streamSlice(int y) {
-    if (y < 0 || y >= slices.size()) return Stream.empty();
+    if (y < 0 || y >= storage.height()) return Stream.empty();
     else {
-      int[] sx = {0}, sz = {0};
-      return Stream.iterate(
-          new Cell(this, 0, y, 0),
-          _ignored -> sx[0] < maxSliceIndex - 1 || sz[0] < maxSliceIndex - 1,
-          _ignored -> {
-            sz[0]++;
-            if (sz[0] >= maxSliceIndex) {
-              sx[0]++;
-              sz[0] = 0;
-            }
-            return new Cell(this, sx[0], y, sz[0]);
-          });
+      // Only visit the part of the slice the storage has reserved memory for; everything outside it
+      // is empty. Cells are visited row by row, which matches the storage layout.
+      final int minSx = storage.minAllocatedSliceXIndex();
+      final int minSz = storage.minAllocatedSliceZIndex();
+      final int width = storage.maxAllocatedSliceZIndex() - minSz;
+      final int area = (storage.maxAllocatedSliceXIndex() - minSx) * width;
+      return IntStream.range(0, area)
+          .mapToObj(i -> new Cell(this, minSx + i / width, y, minSz + i % width));
     }
   }
 
+  /**
+   * Calls the given action once for every cell in the allocated portion of the given slice, using a
+   * single {@link Cursor} that is moved from cell to cell. The cursor must not be retained by the
+   * action.
+   */
+  void forEachCellInSlice(int y, @Nonnull Consumer<Cursor> action) {
+    if (y < 0 || y >= storage.height()) return;
+
+    final int maxSx = storage.maxAllocatedSliceXIndex();
+    final int minSz = storage.minAllocatedSliceZIndex();
+    final int maxSz = storage.maxAllocatedSliceZIndex();
+    Cursor cursor = cursor();
+    for (int sx = storage.minAllocatedSliceXIndex(); sx < maxSx; sx++)
+      for (int sz = minSz; sz < maxSz; sz++) action.accept(cursor.moveToSliceCoords(sx, y, sz));
+  }
+
+  /**
+   * Calls the given action once for every {@linkplain Cell#isFilled() filled} cell in the given
+   * slice, using a single {@link Cursor} that is moved from cell to cell. Runs of empty cells are
+   * skipped using the space's occupancy bitsets, so the cost of the scan is proportional to the
+   * number of filled cells rather than to the area of the slice. The cursor must not be retained by
+   * the action.
+   */
+  void forEachFilledCellInSlice(int y, @Nonnull Consumer<Cursor> action) {
+    if (y < 0 || y >= storage.height()) return;
+
+    Cursor cursor = cursor();
+    occupancy.forEachOccupied(
+        y,
+        (sx, sy, sz) -> {
+          if (cursor.moveToSliceCoords(sx, sy, sz).isFilled()) action.accept(cursor);
+        });
+  }
+
+  /**
+   * Visits every {@linkplain Cell#isFilled() filled} cell in the space, slice by slice from the
+   * ground up.
+   *
+   * @see #forEachFilledCellInSlice(int, Consumer)
+   */
+  void forEachFilledCell(@Nonnull Consumer<Cursor> action) {
+    int maxY = occupancy.spaceBound(TreeOccupancy.MAX_Y);
+    for (int y = occupancy.spaceBound(TreeOccupancy.MIN_Y); y <= maxY; y++)
+      forEachFilledCellInSlice(y, action);
+  }
+
+  /**
+   * @return the smallest region, in tree coordinates, that contains every {@linkplain
+   *     Cell#isFilled() filled} cell in this space, or an empty optional if no cell has been
+   *     filled. The region is maintained as blocks are written, so this runs in constant time.
+   *     Emptying a filled cell never shrinks the region.
+   */
+  public @Nonnull Optional<Region> occupiedRegion() {
+    if (occupancy.spaceBound(TreeOccupancy.MIN_Y) > occupancy.spaceBound(TreeOccupancy.MAX_Y))
+      return Optional.empty();
+    else
+      return Optional.of(
+          new Region(
+              sliceIndexToTreeCoordinate(occupancy.spaceBound(TreeOccupancy.MIN_X)),
+              occupancy.spaceBound(TreeOccupancy.MIN_Y),
+              sliceIndexToTreeCoordinate(occupancy.spaceBound(TreeOccupancy.MIN_Z)),
+              sliceIndexToTreeCoordinate(occupancy.spaceBound(TreeOccupancy.MAX_X)),
+              occupancy.spaceBound(TreeOccupancy.MAX_Y),
+              sliceIndexToTreeCoordinate(occupancy.spaceBound(TreeOccupancy.MAX_Z))));
+  }
+
+  /**
+   * @return the smallest region, in tree coordinates, that contains every {@linkplain
+   *     Cell#isFilled() filled} cell in slice {@code y}, or an empty optional if no cell in the
+   *     slice has been filled.
+   * @see #occupiedRegion()
+   */
+  public @Nonnull Optional<Region> occupiedRegion(int y) {
+    if (y < 0
+        || y >= maxTreeHeight
+        || occupancy.sliceBound(y, TreeOccupancy.MIN_X)
+            > occupancy.sliceBound(y, TreeOccupancy.MAX_X)) return Optional.empty();
+    else
+      return Optional.of(
+          new Region(
+              sliceIndexToTreeCoordinate(occupancy.sliceBound(y, TreeOccupancy.MIN_X)),
+              y,
+              sliceIndexToTreeCoordinate(occupancy.sliceBound(y, TreeOccupancy.MIN_Z)),
+              sliceIndexToTreeCoordinate(occupancy.sliceBound(y, TreeOccupancy.MAX_X)),
+              y,
+              sliceIndexToTreeCoordinate(occupancy.sliceBound(y, TreeOccupancy.MAX_Z))));
+  }
+
+  /**
+   * @return the number of cells in this space that currently hold the given block. Runs in
+   *     constant time.
+   */
+  public long countBlocks(@Nonnull GiantRedwoodGenerator.TreeBlock block) {
+    return occupancy.count(block);
+  }
+
+  /**
+   * @return the number of {@linkplain Cell#isFilled() filled} cells in this space; i.e., the number
+   *     of blocks the tree will place in the world.
+   */
+  public long countFilledBlocks() {
+    return occupancy.filledCount();
+  }
+
+  /**
+   * @return a new {@link ClusterCursor} over this space. Cluster cursors are not thread-safe; each
+   *     thread should create its own.
+   */
+  public @Nonnull ClusterCursor clusterCursor() {
+    return new ClusterCursor(this);
+  }
+
   void markTrunkHeight() {
-    this.trunkHeight = slices.size();
+    this.trunkHeight = storage.height();
+  }
+
+  /** The storage engines that can hold the blocks of a {@link TreeSpace}. */
+  public enum Backend {
+    /**
+     * Stores every cell of the space in one contiguous array. Fast and compact for ordinary trees,
+     * but reserves memory for the whole bounding box up front, so it is limited to {@link
+     * GiantRedwoodGenerator#MAX_TREE_RADIUS} and {@link GiantRedwoodGenerator#MAX_TREE_HEIGHT}.
+     */
+    FLAT(GiantRedwoodGenerator.MAX_TREE_RADIUS, GiantRedwoodGenerator.MAX_TREE_HEIGHT),
+
+    /**
+     * Stores the space as lazily allocated, palette-compressed bricks, so memory is only used where
+     * the tree actually grows. Supports the much larger {@link
+     * GiantRedwoodGenerator#MAX_SHOWCASE_TREE_RADIUS} and {@link
+     * GiantRedwoodGenerator#MAX_SHOWCASE_TREE_HEIGHT} limits.
+     */
+    BRICKED(
+        GiantRedwoodGenerator.MAX_SHOWCASE_TREE_RADIUS,
+        GiantRedwoodGenerator.MAX_SHOWCASE_TREE_HEIGHT);
+
+    private final int maxTreeRadius;
+    private final int maxTreeHeight;
+
+    Backend(int maxTreeRadius, int maxTreeHeight) {
+      this.maxTreeRadius = maxTreeRadius;
+      this.maxTreeHeight = maxTreeHeight;
+    }
   }
 
   /**
@@ -281,7 +524,7 @@ public class TreeSpace {
      *     tree space.
      */
     boolean isValid() {
-      return y >= 0 && y < MAX_TREE_HEIGHT;
+      return y >= 0 && y < tree.maxTreeHeight;
     }
 
     /**
@@ -291,6 +534,31 @@ public class TreeSpace {
       return tree.streamSlice(y);
     }
 
+    /**
+     * Visits every cell within this slice with a single, reused {@link Cursor}.
+     *
+     * @see TreeSpace#forEachCellInSlice(int, Consumer)
+     */
+    public void forEachCell(@Nonnull Consumer<Cursor> action) {
+      tree.forEachCellInSlice(y, action);
+    }
+
+    /**
+     * Visits every filled cell within this slice with a single, reused {@link Cursor}.
+     *
+     * @see TreeSpace#forEachFilledCellInSlice(int, Consumer)
+     */
+    public void forEachFilledCell(@Nonnull Consumer<Cursor> action) {
+      tree.forEachFilledCellInSlice(y, action);
+    }
+
+    /**
+     * @see TreeSpace#occupiedRegion(int)
+     */
+    public @Nonnull Optional<Region> occupiedRegion() {
+      return tree.occupiedRegion(y);
+    }
+
     /**
      * @return a (potentially {@linkplain #isValid() invalid} slice representing the XZ plane
      *     immediately above (positive {@code y}) this slice in the tree space.
@@ -304,7 +572,7 @@ public class TreeSpace {
      *     represents a valid {@code y} coordinate.
      */
     public boolean hasAbove() {
-      return y < tree.slices.size() - 1;
+      return y < tree.storage.height() - 1;
     }
 
     /**
@@ -352,16 +620,8 @@ public class TreeSpace {
      */
     /*package*/ @Nonnull
     Optional<Slice> allocate() {
-      synchronized (tree.slices) {
-        if (!isValid()) return Optional.empty();
-        else {
-          for (int y = tree.slices.size() - 1; y < this.y; y++)
-            tree.slices.add(
-                new GiantRedwoodGenerator.TreeBlock[tree.maxSliceIndex][tree.maxSliceIndex]);
-
-          return Optional.of(this);
-        }
-      }
+      if (!isValid() || !tree.storage.allocateThrough(y)) return Optional.empty();
+      else return Optional.of(this);
     }
   }
 
@@ -441,11 +701,7 @@ public class TreeSpace {
      */
     public @Nullable GiantRedwoodGenerator.TreeBlock setIfEmpty(
         @Nullable GiantRedwoodGenerator.TreeBlock block) {
-      synchronized (tree.getSyncLockFromSliceCoords(sliceXIndex, y, sliceZIndex)) {
-        GiantRedwoodGenerator.TreeBlock previous = get();
-        if (previous == null || previous.isEmpty()) set(block);
-        return previous;
-      }
+      return tree.setIfEmptyFromSliceCoords(sliceXIndex, y, sliceZIndex, block);
     }
 
     /**
@@ -618,7 +874,7 @@ public class TreeSpace {
      */
     public @Nonnull Optional<Cell> up() {
       return Optional.ofNullable(
-          y < MAX_TREE_HEIGHT - 1 ? new Cell(tree, sliceXIndex, y + 1, sliceZIndex) : null);
+          y < tree.maxTreeHeight - 1 ? new Cell(tree, sliceXIndex, y + 1, sliceZIndex) : null);
     }
 
     /**
@@ -648,13 +904,14 @@ public class TreeSpace {
     }
 
     /**
-     * @return a random point contained within this coordinate based on deviation from the center
-     *     point.
+     * @return a pseudo-random point contained within this coordinate based on deviation from the
+     *     center point. The point is derived from the tree's seed and this cell's coordinates, so
+     *     the same cell always produces the same point.
      */
-    public @Nonnull Vec3 randomContainedTreeCoordinate(@Nonnull RandomSource randomSource) {
-      double dx = -0.5 + randomSource.nextDouble();
-      double dy = -0.5 + randomSource.nextDouble();
-      double dz = -0.5 + randomSource.nextDouble();
+    public @Nonnull Vec3 positionalContainedTreeCoordinate() {
+      double dx = -0.5 + Randomness.positionalDouble(tree.seed, treeX, y, treeZ, JITTER_X);
+      double dy = -0.5 + Randomness.positionalDouble(tree.seed, treeX, y, treeZ, JITTER_Y);
+      double dz = -0.5 + Randomness.positionalDouble(tree.seed, treeX, y, treeZ, JITTER_Z);
       return toTreePos().getCenter().add(dx, dy, dz);
     }
 
@@ -665,4 +922,306 @@ public class TreeSpace {
       return new BlockPos(treeX, y, treeZ);
     }
   }
+
+  /**
+   * A reusable walk over the clusters that summarize the {@linkplain Cell#isFilled() filled} cells
+   * near a location: each cluster reports the number of cells in it and the centroid of their
+   * centers in tree coordinates. The clusters come from a moment field that's maintained as blocks
+   * are written, so the cost of a walk depends only on its radius, not on how many cells are
+   * filled, and walking doesn't allocate anything. Clusters are coarse: cells a little outside the
+   * radius may be included.
+   */
+  public static final class ClusterCursor {
+    private final @Nonnull TreeSpace tree;
+    private final @Nonnull TreeMomentField.BinCursor bins;
+
+    /*package*/ ClusterCursor(@Nonnull TreeSpace tree) {
+      this.tree = tree;
+      this.bins = tree.occupancy.moments().binCursor();
+    }
+
+    /**
+     * Restarts this cursor on the clusters within {@code radius} cells of the given tree
+     * coordinates. The cursor isn't on a cluster until {@link #next()} is called.
+     *
+     * @return {@code this} instance for method chaining.
+     */
+    public @Nonnull ClusterCursor moveTo(@Nonnull BlockPos treeCenter, int radius) {
+      int sx = tree.treeCoordinateToUnsafeSliceIndex(treeCenter.getX());
+      int sz = tree.treeCoordinateToUnsafeSliceIndex(treeCenter.getZ());
+      int y = treeCenter.getY();
+      bins.reset(sx - radius, y - radius, sz - radius, sx + radius, y + radius, sz + radius);
+      return this;
+    }
+
+    /**
+     * Moves this cursor to the next cluster.
+     *
+     * @return {@code true} if the cursor is on a cluster, or {@code false} if the walk is finished.
+     */
+    public boolean next() {
+      return bins.next();
+    }
+
+    /**
+     * @return the number of filled cells in the current cluster.
+     */
+    public long getCount() {
+      return bins.count();
+    }
+
+    public double getCentroidX() {
+      return tree.sliceIndexToTreeCoordinate((double) bins.sumSliceX() / bins.count()) + 0.5;
+    }
+
+    public double getCentroidY() {
+      return (double) bins.sumY() / bins.count() + 0.5;
+    }
+
+    public double getCentroidZ() {
+      return tree.sliceIndexToTreeCoordinate((double) bins.sumSliceZ() / bins.count()) + 0.5;
+    }
+  }
+
+  /**
+   * An axis-aligned box of cells within a {@link TreeSpace}, in tree coordinates. Both the minimum
+   * and maximum bounds are inclusive.
+   */
+  @Data
+  public static final class Region {
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+
+    /**
+     * @return {@code true} IFF the given tree coordinates lie within this region.
+     */
+    public boolean contains(int treeX, int treeY, int treeZ) {
+      return treeX >= minX
+          && treeX <= maxX
+          && treeY >= minY
+          && treeY <= maxY
+          && treeZ >= minZ
+          && treeZ <= maxZ;
+    }
+
+    /**
+     * @return the number of cells contained within this region.
+     */
+    public long volume() {
+      return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+  }
+
+  /**
+   * A mutable, reusable view of a single location within a {@link TreeSpace}. Unlike {@link Cell},
+   * a cursor can be {@linkplain #moveTo(int, int, int) moved} around the space, and its neighbour
+   * queries work directly on the space's storage, so walking the tree with a cursor doesn't
+   * allocate anything. Like cells, cursors may point at coordinates that are not valid.
+   *
+   * <p>The neighbour queries follow the same rules as the equivalent {@link Cell} methods.
+   */
+  public static final class Cursor {
+    private final @Nonnull TreeSpace tree;
+    private int sliceXIndex;
+    private int y;
+    private int sliceZIndex;
+
+    /*package*/ Cursor(@Nonnull TreeSpace tree) {
+      this.tree = tree;
+      this.sliceXIndex = tree.treeCoordinateToUnsafeSliceIndex(0);
+      this.sliceZIndex = sliceXIndex;
+    }
+
+    /**
+     * Moves this cursor to the given tree coordinates.
+     *
+     * @return {@code this} instance for method chaining.
+     */
+    public @Nonnull Cursor moveTo(int treeX, int treeY, int treeZ) {
+      return moveToSliceCoords(
+          tree.treeCoordinateToUnsafeSliceIndex(treeX),
+          treeY,
+          tree.treeCoordinateToUnsafeSliceIndex(treeZ));
+    }
+
+    /*package*/ @Nonnull
+    Cursor moveToSliceCoords(int sliceXIndex, int treeY, int sliceZIndex) {
+      this.sliceXIndex = sliceXIndex;
+      this.y = treeY;
+      this.sliceZIndex = sliceZIndex;
+      return this;
+    }
+
+    public int getTreeX() {
+      return tree.sliceIndexToTreeCoordinate(sliceXIndex);
+    }
+
+    public int getY() {
+      return y;
+    }
+
+    public int getTreeZ() {
+      return tree.sliceIndexToTreeCoordinate(sliceZIndex);
+    }
+
+    /**
+     * @see Cell#isValid()
+     */
+    public boolean isValid() {
+      return tree.areValidSliceIndices(sliceXIndex, y, sliceZIndex);
+    }
+
+    /**
+     * @see Cell#get()
+     */
+    public @Nullable GiantRedwoodGenerator.TreeBlock get() {
+      return GiantRedwoodGenerator.TreeBlock.fromCode(
+          tree.codeFromSliceCoords(sliceXIndex, y, sliceZIndex));
+    }
+
+    /**
+     * @see Cell#getNonnull()
+     */
+    public @Nonnull GiantRedwoodGenerator.TreeBlock getNonnull() {
+      GiantRedwoodGenerator.TreeBlock block = get();
+      return block == null ? AIR : block;
+    }
+
+    /**
+     * @return the {@linkplain GiantRedwoodGenerator.TreeBlock#code() code} of the block stored at
+     *     this location, or {@code 0} when the cell is empty or invalid.
+     */
+    /*package*/ byte code() {
+      return tree.codeFromSliceCoords(sliceXIndex, y, sliceZIndex);
+    }
+
+    /**
+     * @see Cell#set(GiantRedwoodGenerator.TreeBlock)
+     */
+    public @Nullable GiantRedwoodGenerator.TreeBlock set(
+        @Nullable GiantRedwoodGenerator.TreeBlock block) {
+      return tree.setFromSliceCoords(sliceXIndex, y, sliceZIndex, block);
+    }
+
+    /**
+     * @see Cell#setIfEmpty(GiantRedwoodGenerator.TreeBlock)
+     */
+    public @Nullable GiantRedwoodGenerator.TreeBlock setIfEmpty(
+        @Nullable GiantRedwoodGenerator.TreeBlock block) {
+      return tree.setIfEmptyFromSliceCoords(sliceXIndex, y, sliceZIndex, block);
+    }
+
+    /**
+     * @see Cell#isEmpty()
+     */
+    public boolean isEmpty() {
+      return isEmptyCode(tree.codeFromSliceCoords(sliceXIndex, y, sliceZIndex));
+    }
+
+    /**
+     * @see Cell#isFilled()
+     */
+    public boolean isFilled() {
+      return !isEmpty();
+    }
+
+    /**
+     * @see Cell#isTouchingInSlice(GiantRedwoodGenerator.TreeBlock)
+     */
+    public boolean isTouchingInSlice(@Nonnull GiantRedwoodGenerator.TreeBlock block) {
+      // Missing neighbours and cells without a stored block both count as AIR
+      final int max = tree.maxSliceIndex - 1;
+      return inSliceNeighbourIs(sliceZIndex > 0, sliceXIndex, sliceZIndex - 1, block)
+          || inSliceNeighbourIs(sliceXIndex < max, sliceXIndex + 1, sliceZIndex, block)
+          || inSliceNeighbourIs(sliceZIndex < max, sliceXIndex, sliceZIndex + 1, block)
+          || inSliceNeighbourIs(sliceXIndex > 0, sliceXIndex - 1, sliceZIndex, block);
+    }
+
+    private boolean inSliceNeighbourIs(
+        boolean exists, int sx, int sz, @Nonnull GiantRedwoodGenerator.TreeBlock block) {
+      byte code = exists ? tree.codeFromSliceCoords(sx, y, sz) : 0;
+      return (code == 0 ? AIR : GiantRedwoodGenerator.TreeBlock.fromCode(code)) == block;
+    }
+
+    /**
+     * @return {@code true} if any of the valid cells surrounding this location in 3D space holds a
+     *     block that is not {@linkplain GiantRedwoodGenerator.TreeBlock#isEmpty() empty}.
+     * @see Cell#isTouching(Predicate)
+     */
+    public boolean isTouchingFilled() {
+      return isTouching(b -> !b.isEmpty());
+    }
+
+    /**
+     * @see Cell#isTouching(Predicate)
+     */
+    public boolean isTouching(@Nonnull Predicate<GiantRedwoodGenerator.TreeBlock> predicate) {
+      for (int d = 0; d < NEIGHBOUR_COUNT; d++)
+        if (hasNeighbour(d) && predicate.test(neighbour(d))) return true;
+      return false;
+    }
+
+    /**
+     * @see Cell#isSurroundedBy(Predicate)
+     */
+    public boolean isSurroundedBy(@Nonnull Predicate<GiantRedwoodGenerator.TreeBlock> predicate) {
+      for (int d = 0; d < NEIGHBOUR_COUNT; d++)
+        if (hasNeighbour(d) && !predicate.test(neighbour(d))) return false;
+      return true;
+    }
+
+    // Neighbour indices, in the same order as Cell#surroundingCells()
+    private static final int NORTH = 0, EAST = 1, SOUTH = 2, WEST = 3, UP = 4, DOWN = 5;
+    private static final int NEIGHBOUR_COUNT = 6;
+
+    private boolean hasNeighbour(int direction) {
+      return switch (direction) {
+        case NORTH -> sliceZIndex > 0;
+        case EAST -> sliceXIndex < tree.maxSliceIndex - 1;
+        case SOUTH -> sliceZIndex < tree.maxSliceIndex - 1;
+        case WEST -> sliceXIndex > 0;
+        case UP -> y < tree.maxTreeHeight - 1;
+        default -> y > 0;
+      };
+    }
+
+    private @Nonnull GiantRedwoodGenerator.TreeBlock neighbour(int direction) {
+      byte code =
+          switch (direction) {
+            case NORTH -> tree.codeFromSliceCoords(sliceXIndex, y, sliceZIndex - 1);
+            case EAST -> tree.codeFromSliceCoords(sliceXIndex + 1, y, sliceZIndex);
+            case SOUTH -> tree.codeFromSliceCoords(sliceXIndex, y, sliceZIndex + 1);
+            case WEST -> tree.codeFromSliceCoords(sliceXIndex - 1, y, sliceZIndex);
+            case UP -> tree.codeFromSliceCoords(sliceXIndex, y + 1, sliceZIndex);
+            default -> tree.codeFromSliceCoords(sliceXIndex, y - 1, sliceZIndex);
+          };
+      return code == 0 ? AIR : GiantRedwoodGenerator.TreeBlock.fromCode(code);
+    }
+
+    /**
+     * @see Cell#distanceToSqr(BlockPos)
+     */
+    public double distanceToSqr(@Nonnull BlockPos treeCoordinates) {
+      int dx = getTreeX() - treeCoordinates.getX();
+      int dy = y - treeCoordinates.getY();
+      int dz = getTreeZ() - treeCoordinates.getZ();
+      return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return a new (immutable) {@link Cell} at this cursor's current location.
+     */
+    public @Nonnull Cell toCell() {
+      return new Cell(tree, sliceXIndex, y, sliceZIndex);
+    }
+
+    private static boolean isEmptyCode(byte code) {
+      GiantRedwoodGenerator.TreeBlock b = GiantRedwoodGenerator.TreeBlock.fromCode(code);
+      return b == null || b.isEmpty();
+    }
+  }
 }
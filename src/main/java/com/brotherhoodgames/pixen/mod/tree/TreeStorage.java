@@ -0,0 +1,66 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+/**
+ * A storage engine for the blocks of a {@link TreeSpace}. Blocks are stored as {@linkplain
+ * GiantRedwoodGenerator.TreeBlock#code() block codes} and addressed by slice coordinates, which the
+ * owning tree space validates before calling into the storage.
+ *
+ * <p>Implementations must be safe to read and write from several threads at once without external
+ * locking; every write is atomic with respect to the cell it targets.
+ */
+/*package*/ interface TreeStorage {
+  /**
+   * @return the block code stored at the given slice coordinates, or {@code 0} if no block has been
+   *     stored there.
+   */
+  byte get(int sliceXIndex, int y, int sliceZIndex);
+
+  /**
+   * Stores a block code at the given slice coordinates. The slice must already have been
+   * {@linkplain #allocateThrough(int) allocated}.
+   *
+   * @return the code previously stored at the coordinates.
+   */
+  byte set(int sliceXIndex, int y, int sliceZIndex, byte code);
+
+  /**
+   * Atomically stores a block code at the given slice coordinates if the code currently stored
+   * there is {@code expected}. The slice must already have been {@linkplain #allocateThrough(int)
+   * allocated}.
+   *
+   * @return {@code true} IFF the code was stored.
+   */
+  boolean compareAndSet(int sliceXIndex, int y, int sliceZIndex, byte expected, byte code);
+
+  /**
+   * @return the number of slices that have been allocated, counting up from {@code y = 0}.
+   */
+  int height();
+
+  /**
+   * Ensures that all slices from the ground up to and including {@code y} are allocated.
+   *
+   * @return {@code false} if {@code y} lies outside the storage's capacity.
+   */
+  boolean allocateThrough(int y);
+
+  /**
+   * @return the smallest slice x index for which the storage has reserved memory.
+   */
+  int minAllocatedSliceXIndex();
+
+  /**
+   * @return one past the largest slice x index for which the storage has reserved memory.
+   */
+  int maxAllocatedSliceXIndex();
+
+  /**
+   * @return the smallest slice z index for which the storage has reserved memory.
+   */
+  int minAllocatedSliceZIndex();
+
+  /**
+   * @return one past the largest slice z index for which the storage has reserved memory.
+   */
+  int maxAllocatedSliceZIndex();
+}
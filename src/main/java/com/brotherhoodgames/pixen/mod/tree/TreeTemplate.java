@@ -0,0 +1,418 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntUnaryOperator;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The finished contents of a {@link TreeSpace}, in a compact, immutable form that can be copied
+ * into the world at any position, as many times as needed.
+ *
+ * <p>Each filled cell takes five bytes: its tree coordinates packed into an {@code int}, and a
+ * palette index identifying its block. The cells can live on the heap, or in a buffer {@linkplain
+ * TreeTemplateLibrary mapped from a file}, in which case they're read straight from the mapping.
+ *
+ * <p>Cells are grouped by <em>column</em>: a 16 by 16 block area, aligned so that the tree's
+ * trunk stands in the middle of one. For a tree rooted at the middle block of a chunk, which is
+ * where world generation roots them, each column is exactly the part of the tree in one chunk, and
+ * its cells can be {@linkplain #copyTo(int, int, int, int, int,
+ * GiantRedwoodGenerator.BulkGenerationCollaborator) copied} without looking at any other cell.
+ * Within a column, cells are kept from the ground up.
+ */
+public final class TreeTemplate {
+  // Tree coordinates are packed into 10 bits each, with x and z offset so they're never negative.
+  private static final int COORDINATE_BITS = 10;
+  private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+  private static final int HORIZONTAL_OFFSET = 1 << (COORDINATE_BITS - 1);
+
+  // Columns are the width of a chunk, with the tree's origin in the middle of column (0, 0).
+  private static final int COLUMN_SIZE = 16;
+  private static final int COLUMN_ORIGIN = COLUMN_SIZE / 2;
+
+  // The height of a chunk section; copies pass on one layer of sections at a time.
+  private static final int SECTION_HEIGHT = 16;
+
+  // Column coordinates are packed into 7 bits each, offset so they're never negative.
+  private static final int COLUMN_BITS = 7;
+  private static final int COLUMN_MASK = (1 << COLUMN_BITS) - 1;
+  private static final int COLUMN_OFFSET = 1 << (COLUMN_BITS - 1);
+
+  /** The number of distinct packed column coordinates; every packed column is less than this. */
+  /*package*/ static final int MAX_COLUMNS = 1 << (2 * COLUMN_BITS);
+
+  // A rough allowance for the object headers and fields of a template and its buffers.
+  private static final long OVERHEAD_BYTES = 128;
+
+  /**
+   * The number of entries in every palette: one for each value a palette index byte can hold.
+   * Indices that don't name a block map to code {@code 0}, and their cells are skipped.
+   */
+  /*package*/ static final int PALETTE_SIZE = 256;
+
+  /**
+   * The palette of templates built in memory, in which each block's palette index is its
+   * {@linkplain GiantRedwoodGenerator.TreeBlock#code() code}.
+   */
+  /*package*/ static final byte[] CODE_PALETTE = identityPalette();
+
+  private final @Nonnull IntBuffer cells;
+  private final @Nonnull ByteBuffer paletteIndices;
+  private final @Nonnull byte[] palette;
+  private final @Nonnull TreeSpace.Region bounds;
+  private final @Nonnull int[] columns;
+  private final @Nonnull int[] columnStarts;
+
+  /**
+   * @param cells the packed tree coordinates of each cell, grouped by column and ordered from the
+   *     ground up within each column.
+   * @param paletteIndices the palette index of each cell's block, parallel to {@code cells}.
+   * @param palette maps each palette index to a block {@linkplain
+   *     GiantRedwoodGenerator.TreeBlock#code() code}, or to {@code 0} if it names no block. Must
+   *     have {@link #PALETTE_SIZE} entries.
+   * @param bounds the smallest region containing every cell.
+   * @param columns the packed coordinates of each column that holds any cells, in order.
+   * @param columnStarts the index of each column's first cell, followed by the number of cells.
+   */
+  /*package*/ TreeTemplate(
+      @Nonnull IntBuffer cells,
+      @Nonnull ByteBuffer paletteIndices,
+      @Nonnull byte[] palette,
+      @Nonnull TreeSpace.Region bounds,
+      @Nonnull int[] columns,
+      @Nonnull int[] columnStarts) {
+    this.cells = cells;
+    this.paletteIndices = paletteIndices;
+    this.palette = palette;
+    this.bounds = bounds;
+    this.columns = columns;
+    this.columnStarts = columnStarts;
+  }
+
+  /**
+   * Builds a template from cells in any order; they're sorted into columns first.
+   *
+   * @param cells the packed tree coordinates of each cell.
+   * @param codes the block code of each cell, parallel to {@code cells}.
+   */
+  /*package*/ TreeTemplate(@Nonnull int[] cells, @Nonnull byte[] codes) {
+    this(new Columns(cells, codes), boundsOf(cells));
+  }
+
+  private TreeTemplate(@Nonnull Columns sorted, @Nonnull TreeSpace.Region bounds) {
+    this(
+        IntBuffer.wrap(sorted.cells),
+        ByteBuffer.wrap(sorted.codes),
+        CODE_PALETTE,
+        bounds,
+        sorted.columns,
+        sorted.columnStarts);
+  }
+
+  /**
+   * @return a template holding every {@linkplain TreeSpace.Cell#isFilled() filled} cell in the
+   *     given space.
+   */
+  /*package*/ static @Nonnull TreeTemplate of(@Nonnull TreeSpace tree) {
+    int capacity = (int) tree.countFilledBlocks();
+    int[] cells = new int[capacity];
+    byte[] codes = new byte[capacity];
+    int[] count = {0};
+    tree.forEachFilledCell(
+        cell -> {
+          cells[count[0]] = pack(cell.getTreeX(), cell.getY(), cell.getTreeZ());
+          codes[count[0]++] = cell.code();
+        });
+    return count[0] == capacity
+        ? new TreeTemplate(cells, codes)
+        : new TreeTemplate(Arrays.copyOf(cells, count[0]), Arrays.copyOf(codes, count[0]));
+  }
+
+  /*package*/ static int pack(int treeX, int treeY, int treeZ) {
+    return ((treeX + HORIZONTAL_OFFSET) << (2 * COORDINATE_BITS))
+        | (treeY << COORDINATE_BITS)
+        | (treeZ + HORIZONTAL_OFFSET);
+  }
+
+  private static int unpackX(int cell) {
+    return ((cell >>> (2 * COORDINATE_BITS)) & COORDINATE_MASK) - HORIZONTAL_OFFSET;
+  }
+
+  private static int unpackY(int cell) {
+    return (cell >>> COORDINATE_BITS) & COORDINATE_MASK;
+  }
+
+  private static int unpackZ(int cell) {
+    return (cell & COORDINATE_MASK) - HORIZONTAL_OFFSET;
+  }
+
+  /**
+   * @return the packed coordinates of the column holding the given packed cell.
+   */
+  private static int columnOf(int cell) {
+    int columnX = Math.floorDiv(unpackX(cell) + COLUMN_ORIGIN, COLUMN_SIZE);
+    int columnZ = Math.floorDiv(unpackZ(cell) + COLUMN_ORIGIN, COLUMN_SIZE);
+    return ((columnX + COLUMN_OFFSET) << COLUMN_BITS) | (columnZ + COLUMN_OFFSET);
+  }
+
+  private static int unpackColumnX(int column) {
+    return ((column >>> COLUMN_BITS) & COLUMN_MASK) - COLUMN_OFFSET;
+  }
+
+  private static int unpackColumnZ(int column) {
+    return (column & COLUMN_MASK) - COLUMN_OFFSET;
+  }
+
+  private static @Nonnull TreeSpace.Region boundsOf(@Nonnull int[] cells) {
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+    for (int cell : cells) {
+      int x = unpackX(cell), y = unpackY(cell), z = unpackZ(cell);
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      minZ = Math.min(minZ, z);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+      maxZ = Math.max(maxZ, z);
+    }
+    return cells.length == 0
+        ? new TreeSpace.Region(0, 0, 0, -1, -1, -1)
+        : new TreeSpace.Region(minX, minY, minZ, maxX, maxY, maxZ);
+  }
+
+  private static @Nonnull byte[] identityPalette() {
+    byte[] palette = new byte[PALETTE_SIZE];
+    for (GiantRedwoodGenerator.TreeBlock block : GiantRedwoodGenerator.TreeBlock.values())
+      palette[block.code()] = block.code();
+    return palette;
+  }
+
+  /**
+   * @return the number of blocks in the tree.
+   */
+  public int size() {
+    return cells.limit();
+  }
+
+  /**
+   * @return the smallest region, in tree coordinates, that contains every block in the tree. The
+   *     region is empty (its minimums exceed its maximums) if the tree has no blocks.
+   */
+  public @Nonnull TreeSpace.Region bounds() {
+    return bounds;
+  }
+
+  /**
+   * @return an estimate of the heap memory held by this template, in bytes. Cells read from a
+   *     mapped file are counted too, since the mapping is held for as long as the template is.
+   */
+  public long estimatedBytes() {
+    return OVERHEAD_BYTES
+        + size() * (long) (Integer.BYTES + Byte.BYTES)
+        + (columns.length + columnStarts.length) * (long) Integer.BYTES;
+  }
+
+  /** Passes each column that holds any of the tree's blocks to {@code visitor}, in order. */
+  public void forEachColumn(@Nonnull ColumnVisitor visitor) {
+    for (int c = 0; c < columns.length; c++) {
+      int from = columnStarts[c], to = columnStarts[c + 1];
+      visitor.visit(
+          unpackColumnX(columns[c]),
+          unpackColumnZ(columns[c]),
+          from,
+          to,
+          unpackY(cells.get(from)),
+          unpackY(cells.get(to - 1)));
+    }
+  }
+
+  /**
+   * Passes the tree's blocks to {@code collaborator} as though the tree had been generated at the
+   * given world coordinates: in batches, one chunk section at a time, from the lowest sections up.
+   */
+  public void copyTo(
+      int treeWorldX,
+      int treeWorldY,
+      int treeWorldZ,
+      @Nonnull GiantRedwoodGenerator.BulkGenerationCollaborator collaborator) {
+    // Each column is sorted from the ground up, so the columns are merged a layer of sections at
+    // a time: every column passes on its blocks below the layer's top before any moves on.
+    int[] next = Arrays.copyOf(columnStarts, columns.length);
+    int remaining = columns.length;
+    int layerTop = Integer.MAX_VALUE;
+    for (int c = 0; c < columns.length; c++)
+      layerTop = Math.min(layerTop, sectionTop(unpackY(cells.get(next[c])), treeWorldY));
+
+    SectionBatcher batcher = new SectionBatcher(collaborator);
+    while (remaining > 0) {
+      for (int c = 0; c < columns.length; c++) {
+        int end = columnStarts[c + 1];
+        if (next[c] == end) continue;
+        while (next[c] < end && unpackY(cells.get(next[c])) < layerTop)
+          add(batcher, next[c]++, treeWorldX, treeWorldY, treeWorldZ);
+        if (next[c] == end) remaining--;
+      }
+      layerTop += SECTION_HEIGHT;
+    }
+    batcher.flush();
+  }
+
+  /**
+   * Like {@link #copyTo(int, int, int, GiantRedwoodGenerator.BulkGenerationCollaborator)}, but
+   * only passes on the cells from index {@code from} (inclusive) to {@code to} (exclusive), such as
+   * the cells of a single {@linkplain #forEachColumn column}.
+   *
+   * @throws IndexOutOfBoundsException if the range doesn't lie within the template's cells.
+   */
+  public void copyTo(
+      int treeWorldX,
+      int treeWorldY,
+      int treeWorldZ,
+      int from,
+      int to,
+      @Nonnull GiantRedwoodGenerator.BulkGenerationCollaborator collaborator) {
+    Objects.checkFromToIndex(from, to, size());
+    SectionBatcher batcher = new SectionBatcher(collaborator);
+    for (int i = from; i < to; i++) add(batcher, i, treeWorldX, treeWorldY, treeWorldZ);
+    batcher.flush();
+  }
+
+  /**
+   * @return the lowest tree y coordinate above the chunk section holding the given tree y
+   *     coordinate, for a tree rooted at world height {@code treeWorldY}.
+   */
+  private static int sectionTop(int treeY, int treeWorldY) {
+    return (Math.floorDiv(treeY + treeWorldY, SECTION_HEIGHT) + 1) * SECTION_HEIGHT - treeWorldY;
+  }
+
+  private void add(
+      @Nonnull SectionBatcher batcher, int i, int treeWorldX, int treeWorldY, int treeWorldZ) {
+    // Skip cells whose palette index names no block, as only a corrupt file can hold
+    byte code = palette[paletteIndices.get(i) & 0xFF];
+    if (code == 0) return;
+    int cell = cells.get(i);
+    batcher.add(
+        code, unpackX(cell) + treeWorldX, unpackY(cell) + treeWorldY, unpackZ(cell) + treeWorldZ);
+  }
+
+  /** Writes the column index: the packed columns, then where each column's cells start. */
+  /*package*/ void writeColumns(@Nonnull ByteBuffer out) {
+    for (int column : columns) out.putInt(column);
+    for (int start : columnStarts) out.putInt(start);
+  }
+
+  /** Writes the packed cells, then their block codes, to the given buffer. */
+  /*package*/ void writeCells(@Nonnull ByteBuffer out) {
+    for (int i = 0, n = size(); i < n; i++) out.putInt(cells.get(i));
+    for (int i = 0, n = size(); i < n; i++) out.put(palette[paletteIndices.get(i) & 0xFF]);
+  }
+
+  /**
+   * @return the number of columns that hold any of the tree's blocks.
+   */
+  /*package*/ int columnCount() {
+    return columns.length;
+  }
+
+  /**
+   * Checks that a column index read from a file describes the given number of cells.
+   *
+   * @return {@code true} if the columns are distinct, in order, and their cells cover exactly
+   *     {@code size} cells.
+   */
+  /*package*/ static boolean isValidIndex(
+      @Nonnull int[] columns, @Nonnull int[] columnStarts, int size) {
+    if (columnStarts.length != columns.length + 1
+        || columnStarts[0] != 0
+        || columnStarts[columns.length] != size) return false;
+    for (int c = 0; c < columns.length; c++) {
+      if (columns[c] < 0 || columns[c] >= MAX_COLUMNS) return false;
+      if (c > 0 && columns[c] <= columns[c - 1]) return false;
+      if (columnStarts[c + 1] <= columnStarts[c]) return false;
+    }
+    return true;
+  }
+
+  /** Receives the columns found by {@link #forEachColumn}. */
+  @FunctionalInterface
+  public interface ColumnVisitor {
+    /**
+     * @param columnX the column's x coordinate; column {@code 0} holds the tree's trunk, and
+     *     column {@code n} lies {@code n} chunks east of it.
+     * @param columnZ the column's z coordinate, likewise.
+     * @param from the index of the column's first cell.
+     * @param to one past the index of the column's last cell.
+     * @param minY the tree y coordinate of the column's lowest block.
+     * @param maxY the tree y coordinate of the column's highest block.
+     */
+    void visit(int columnX, int columnZ, int from, int to, int minY, int maxY);
+  }
+
+  /** Cells and their codes sorted into columns, and the index of the columns. */
+  private static final class Columns {
+    final int[] cells;
+    final byte[] codes;
+    final int[] columns;
+    final int[] columnStarts;
+
+    /**
+     * Sorts the given cells by column, then from the ground up, keeping cells with the same
+     * column and height in their original order.
+     */
+    Columns(@Nonnull int[] unsortedCells, @Nonnull byte[] unsortedCodes) {
+      int n = unsortedCells.length;
+
+      // A counting sort by height, then a stable one by column, leaves them sorted by both
+      int[] byHeight = new int[n];
+      countingSort(unsortedCells, TreeTemplate::unpackY, 1 << COORDINATE_BITS, null, byHeight);
+      int[] order = new int[n];
+      int[] counts =
+          countingSort(unsortedCells, TreeTemplate::columnOf, MAX_COLUMNS, byHeight, order);
+
+      this.cells = new int[n];
+      this.codes = new byte[n];
+      for (int i = 0; i < n; i++) {
+        cells[i] = unsortedCells[order[i]];
+        codes[i] = unsortedCodes[order[i]];
+      }
+
+      int columnCount = 0;
+      for (int count : counts) if (count > 0) columnCount++;
+      this.columns = new int[columnCount];
+      this.columnStarts = new int[columnCount + 1];
+      for (int column = 0, c = 0, start = 0; column < MAX_COLUMNS; column++) {
+        if (counts[column] == 0) continue;
+        columns[c] = column;
+        columnStarts[c++] = start;
+        start += counts[column];
+      }
+      columnStarts[columnCount] = n;
+    }
+
+    /**
+     * Stably sorts the indices in {@code in} (or {@code 0} to {@code n - 1}, if it's {@code null})
+     * by the key of the cell at each index, writing them to {@code out}.
+     *
+     * @return the number of cells with each key.
+     */
+    private static @Nonnull int[] countingSort(
+        @Nonnull int[] cells,
+        @Nonnull IntUnaryOperator key,
+        int keys,
+        @Nullable int[] in,
+        @Nonnull int[] out) {
+      int[] counts = new int[keys];
+      for (int cell : cells) counts[key.applyAsInt(cell)]++;
+      int[] next = new int[keys];
+      for (int k = 1; k < keys; k++) next[k] = next[k - 1] + counts[k - 1];
+      for (int i = 0; i < cells.length; i++) {
+        int index = in == null ? i : in[i];
+        out[next[key.applyAsInt(cells[index])]++] = index;
+      }
+      return counts;
+    }
+  }
+}
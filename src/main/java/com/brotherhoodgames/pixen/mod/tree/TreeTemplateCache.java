@@ -0,0 +1,166 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.Data;
+
+/**
+ * Keeps recently generated {@link TreeTemplate}s, so that generating the same tree again (with the
+ * same seed and the same {@linkplain GiantRedwoodGenerationParameters#fingerprint() parameters})
+ * costs only a copy.
+ *
+ * <p>The cache holds templates up to a bound on their {@linkplain TreeTemplate#estimatedBytes()
+ * estimated size}, evicting the least recently used ones first. Templates are also only softly
+ * reachable from the cache, so the garbage collector can reclaim them when the heap runs low;
+ * entries it clears are dropped from the cache the next time it's used.
+ *
+ * <p>The cache is thread-safe. Templates are generated outside its lock, so two threads missing on
+ * the same key at once may both generate the tree; the last one to finish is kept.
+ */
+public final class TreeTemplateCache {
+  private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ReferenceQueue<TreeTemplate> cleared = new ReferenceQueue<>();
+  private long maxBytes;
+  private long bytes;
+
+  /**
+   * @param maxBytes the most memory, in bytes, that the cached templates may use together.
+   */
+  public TreeTemplateCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Changes the bound on the memory used by the cached templates, evicting templates if the cache
+   * is now over it.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /**
+   * @return the template for the tree generated from the given seed and parameters, calling {@code
+   *     generator} to generate it if it isn't in the cache.
+   */
+  public @Nonnull TreeTemplate get(
+      long seed,
+      @Nonnull GiantRedwoodGenerationParameters parameters,
+      @Nonnull Supplier<TreeTemplate> generator) {
+    return get(seed, parameters.fingerprint(), generator);
+  }
+
+  /**
+   * @return the template for the tree generated from the given seed and from parameters with the
+   *     given {@linkplain GiantRedwoodGenerationParameters#fingerprint() fingerprint}, calling
+   *     {@code generator} to generate it if it isn't in the cache.
+   */
+  public @Nonnull TreeTemplate get(
+      long seed, long parametersFingerprint, @Nonnull Supplier<TreeTemplate> generator) {
+    return get(new Key(seed, parametersFingerprint), generator);
+  }
+
+  /*package*/ @Nonnull TreeTemplate get(
+      @Nonnull Key key, @Nonnull Supplier<TreeTemplate> generator) {
+    TreeTemplate template = getIfPresent(key);
+    if (template != null) return template;
+
+    template = generator.get();
+    put(key, template);
+    return template;
+  }
+
+  /**
+   * @return the template for the tree generated from the given seed and from parameters with the
+   *     given {@linkplain GiantRedwoodGenerationParameters#fingerprint() fingerprint}, or {@code
+   *     null} if it isn't in the cache.
+   */
+  public @Nullable TreeTemplate getIfPresent(long seed, long parametersFingerprint) {
+    return getIfPresent(new Key(seed, parametersFingerprint));
+  }
+
+  /**
+   * Adds the given template to the cache as the one for the tree generated from the given seed and
+   * from parameters with the given fingerprint, replacing any cached before.
+   */
+  public void put(long seed, long parametersFingerprint, @Nonnull TreeTemplate template) {
+    put(new Key(seed, parametersFingerprint), template);
+  }
+
+  private synchronized @Nullable TreeTemplate getIfPresent(@Nonnull Key key) {
+    purgeCleared();
+    Entry entry = entries.get(key);
+    return entry == null ? null : entry.get();
+  }
+
+  private synchronized void put(@Nonnull Key key, @Nonnull TreeTemplate template) {
+    Entry previous = entries.remove(key);
+    if (previous != null) bytes -= previous.bytes;
+
+    if (template.estimatedBytes() <= maxBytes) {
+      entries.put(key, new Entry(key, template, cleared));
+      bytes += template.estimatedBytes();
+      evict();
+    }
+  }
+
+  /**
+   * @return the number of templates in the cache, including any the garbage collector has cleared
+   *     but that haven't yet been dropped.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the estimated memory used by the cached templates, in bytes.
+   */
+  public synchronized long estimatedBytes() {
+    return bytes;
+  }
+
+  private void evict() {
+    purgeCleared();
+    Iterator<Entry> oldest = entries.values().iterator();
+    while (bytes > maxBytes && oldest.hasNext()) {
+      bytes -= oldest.next().bytes;
+      oldest.remove();
+    }
+  }
+
+  private void purgeCleared() {
+    Reference<? extends TreeTemplate> ref;
+    while ((ref = cleared.poll()) != null) {
+      Entry entry = (Entry) ref;
+      if (entries.remove(entry.key, entry)) bytes -= entry.bytes;
+    }
+  }
+
+  /** Identifies a generated tree. */
+  @Data
+  /*package*/ static final class Key {
+    private final long seed;
+    private final long parametersFingerprint;
+  }
+
+  private static final class Entry extends SoftReference<TreeTemplate> {
+    final @Nonnull Key key;
+    final long bytes;
+
+    Entry(
+        @Nonnull Key key,
+        @Nonnull TreeTemplate template,
+        @Nonnull ReferenceQueue<TreeTemplate> queue) {
+      super(template, queue);
+      this.key = key;
+      this.bytes = template.estimatedBytes();
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import com.mojang.logging.LogUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import org.slf4j.Logger;
+
+/**
+ * A directory of {@link TreeTemplate}s saved to disk, one file per tree, so that trees survive
+ * restarts and never need to be generated twice.
+ *
+ * <p>Templates are read by {@linkplain FileChannel#map mapping} their files into memory. The cells
+ * are stored in exactly the layout a template reads them in, so loading a template only checks the
+ * header and reads the palette and {@linkplain TreeTemplate#forEachColumn column} index; the cells
+ * themselves are never copied or parsed. A cell whose palette index names no entry of the palette,
+ * which only a corrupt file can hold, or whose entry names a block this version doesn't have, is
+ * skipped when the template is copied.
+ *
+ * <p>A template file is laid out, in little-endian order, as:
+ *
+ * <ol>
+ *   <li>a header: the {@linkplain #MAGIC magic number}, the {@linkplain #VERSION format version},
+ *       the tree's seed and parameters fingerprint (both {@code long}s), and its cell count;
+ *   <li>the tree's {@linkplain TreeTemplate#bounds() bounds}: minimum x, y and z, then maximum x, y
+ *       and z;
+ *   <li>the palette: the number of entries, then each entry's block name as a length-prefixed UTF-8
+ *       string; entry {@code i} names the block with palette index {@code i + 1};
+ *   <li>padding to a multiple of four bytes;
+ *   <li>the column index: the number of columns, each column's packed coordinates, then the index
+ *       of each column's first cell, followed by the cell count;
+ *   <li>the cells' packed tree coordinates, one {@code int} each;
+ *   <li>the cells' palette indices, one byte each.
+ * </ol>
+ *
+ * <p>Files are written to a temporary file first and then moved into place, so a template file is
+ * never seen half-written. Files saved for parameters that are no longer used are only removed
+ * when the library is {@linkplain #prune(long) pruned}.
+ */
+public final class TreeTemplateLibrary {
+  /*package*/ static final int MAGIC = 0x52545850; // "PXTR", read little-endian
+  /*package*/ static final int VERSION = 2;
+
+  private static final Logger LOGGER = LogUtils.getLogger();
+  private static final String EXTENSION = ".pxtree";
+  private static final Set<String> UNKNOWN_BLOCK_NAMES = ConcurrentHashMap.newKeySet();
+
+  private final @Nonnull Path directory;
+
+  /**
+   * @param directory the directory holding the library's files. It's created when the first
+   *     template is saved.
+   */
+  public TreeTemplateLibrary(@Nonnull Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the template saved for the given tree, or an empty optional if none has been saved.
+   * @throws IOException if the template's file can't be read, or doesn't hold a valid template for
+   *     the tree.
+   */
+  public @Nonnull Optional<TreeTemplate> load(long seed, long parametersFingerprint)
+      throws IOException {
+    Path file = fileFor(seed, parametersFingerprint);
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(read(mapped.order(ByteOrder.LITTLE_ENDIAN), seed, parametersFingerprint));
+    } catch (RuntimeException e) {
+      // Buffer underflows and the like, from a truncated or corrupt file
+      throw new IOException(file + " is not a valid tree template", e);
+    }
+  }
+
+  /**
+   * Saves the given template as the one for the given tree, replacing any saved before.
+   *
+   * @throws IOException if the template can't be written.
+   */
+  public void save(long seed, long parametersFingerprint, @Nonnull TreeTemplate template)
+      throws IOException {
+    byte[][] names = paletteNames();
+    int headerBytes = 3 * Integer.BYTES + 2 * Long.BYTES + 6 * Integer.BYTES;
+    int paletteBytes = Integer.BYTES;
+    for (byte[] name : names) paletteBytes += Short.BYTES + name.length;
+    int columnsOffset = align(headerBytes + paletteBytes);
+    int cellsOffset = columnsOffset + (2 * template.columnCount() + 2) * Integer.BYTES;
+
+    ByteBuffer out =
+        ByteBuffer.allocate(cellsOffset + template.size() * (Integer.BYTES + Byte.BYTES))
+            .order(ByteOrder.LITTLE_ENDIAN);
+    TreeSpace.Region bounds = template.bounds();
+    out.putInt(MAGIC)
+        .putInt(VERSION)
+        .putLong(seed)
+        .putLong(parametersFingerprint)
+        .putInt(template.size())
+        .putInt(bounds.getMinX())
+        .putInt(bounds.getMinY())
+        .putInt(bounds.getMinZ())
+        .putInt(bounds.getMaxX())
+        .putInt(bounds.getMaxY())
+        .putInt(bounds.getMaxZ())
+        .putInt(names.length);
+    for (byte[] name : names) out.putShort((short) name.length).put(name);
+    out.position(columnsOffset).putInt(template.columnCount());
+    template.writeColumns(out);
+    template.writeCells(out);
+    out.flip();
+
+    Files.createDirectories(directory);
+    Path file = fileFor(seed, parametersFingerprint);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        while (out.hasRemaining()) channel.write(out);
+      }
+      Files.move(
+          temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Deletes every template saved for parameters other than those with the given fingerprint.
+   *
+   * @return the number of templates deleted.
+   * @throws IOException if the library's directory can't be listed, or a template can't be deleted.
+   */
+  public int prune(long parametersFingerprint) throws IOException {
+    if (!Files.isDirectory(directory)) return 0;
+
+    String kept = String.format("%016x-", parametersFingerprint);
+    int deleted = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (Path file : files)
+        if (!file.getFileName().toString().startsWith(kept) && Files.deleteIfExists(file))
+          deleted++;
+    }
+    return deleted;
+  }
+
+  private @Nonnull Path fileFor(long seed, long parametersFingerprint) {
+    return directory.resolve(
+        String.format("%016x-%016x%s", parametersFingerprint, seed, EXTENSION));
+  }
+
+  private static @Nonnull TreeTemplate read(
+      @Nonnull ByteBuffer in, long seed, long parametersFingerprint) throws IOException {
+    if (in.getInt() != MAGIC) throw new IOException("Not a tree template");
+    int version = in.getInt();
+    if (version != VERSION) throw new IOException("Unsupported tree template version " + version);
+    if (in.getLong() != seed || in.getLong() != parametersFingerprint)
+      throw new IOException("Tree template was saved for a different tree");
+
+    int size = in.getInt();
+    TreeSpace.Region bounds =
+        new TreeSpace.Region(
+            in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+
+    int entries = in.getInt();
+    if (entries < 0 || entries >= TreeTemplate.PALETTE_SIZE)
+      throw new IOException("Tree template has " + entries + " palette entries");
+    // Indices past the last entry, and index 0, are left mapping to no block
+    byte[] palette = new byte[TreeTemplate.PALETTE_SIZE];
+    for (int i = 1; i <= entries; i++) {
+      byte[] name = new byte[in.getShort()];
+      in.get(name);
+      palette[i] = codeOf(new String(name, StandardCharsets.UTF_8));
+    }
+
+    in.position(align(in.position()));
+    int columnCount = in.getInt();
+    if (columnCount < 0 || columnCount > TreeTemplate.MAX_COLUMNS)
+      throw new IOException("Tree template has " + columnCount + " columns");
+    int[] columns = new int[columnCount];
+    int[] columnStarts = new int[columnCount + 1];
+    in.asIntBuffer().get(columns).get(columnStarts);
+    if (!TreeTemplate.isValidIndex(columns, columnStarts, size))
+      throw new IOException("Tree template has an invalid column index");
+
+    int cellsOffset = in.position() + (columns.length + columnStarts.length) * Integer.BYTES;
+    if (size < 0 || cellsOffset + (long) size * (Integer.BYTES + Byte.BYTES) > in.limit())
+      throw new IOException("Tree template is truncated");
+
+    return new TreeTemplate(
+        in.position(cellsOffset).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().limit(size),
+        in.position(cellsOffset + size * Integer.BYTES).slice().limit(size),
+        palette,
+        bounds,
+        columns,
+        columnStarts);
+  }
+
+  /**
+   * @return the code of the block with the given name, or {@code 0}, which names no block, if there
+   *     is no such block; e.g., because the file was saved by a version of the mod that had a block
+   *     this one has since dropped. Each unknown name is only logged the first time it's seen.
+   */
+  private static byte codeOf(@Nonnull String name) {
+    try {
+      return GiantRedwoodGenerator.TreeBlock.valueOf(name).code();
+    } catch (IllegalArgumentException e) {
+      if (UNKNOWN_BLOCK_NAMES.add(name))
+        LOGGER.warn("Skipping unknown block {} in saved tree templates", name);
+      return 0;
+    }
+  }
+
+  /**
+   * @return the name of every block, in order of {@linkplain GiantRedwoodGenerator.TreeBlock#code()
+   *     code}, which is the palette of every template held in memory.
+   */
+  private static @Nonnull byte[][] paletteNames() {
+    GiantRedwoodGenerator.TreeBlock[] blocks = GiantRedwoodGenerator.TreeBlock.values();
+    byte[][] names = new byte[blocks.length][];
+    for (GiantRedwoodGenerator.TreeBlock block : blocks)
+      names[block.code() - 1] = block.name().getBytes(StandardCharsets.UTF_8);
+    return names;
+  }
+
+  private static int align(int offset) {
+    return (offset + Integer.BYTES - 1) & -Integer.BYTES;
+  }
+}
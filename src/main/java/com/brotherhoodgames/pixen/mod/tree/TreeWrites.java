@@ -0,0 +1,66 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import net.minecraft.core.BlockPos;
+
+/**
+ * Writes to a {@link TreeSpace} held back until they can be {@linkplain #applyTo(TreeSpace)
+ * applied} all at once, in the order they were made.
+ *
+ * <p>The {@link GenerationScheduler} gives each generator its own buffer, so that generators
+ * running side by side all read the tree as it was before any of them started, and their writes
+ * land in the same order however the generators were scheduled.
+ */
+/*package*/ final class TreeWrites {
+  private static final int INITIAL_CAPACITY = 4;
+
+  // Each write is four ints: its tree coordinates, then its block code, with IF_EMPTY set for
+  // writes that only fill empty cells.
+  private static final int STRIDE = 4;
+  private static final int IF_EMPTY = 1 << Byte.SIZE;
+
+  private int[] writes = new int[INITIAL_CAPACITY * STRIDE];
+  private int size;
+
+  /**
+   * Records a write of the given block to the given tree coordinates.
+   *
+   * @see TreeSpace#set(BlockPos, GiantRedwoodGenerator.TreeBlock)
+   */
+  void set(@Nonnull BlockPos treeCoordinates, @Nullable GiantRedwoodGenerator.TreeBlock block) {
+    add(treeCoordinates, GiantRedwoodGenerator.TreeBlock.codeOf(block) & 0xFF);
+  }
+
+  /**
+   * Records a write of the given block to the given tree coordinates, if the cell is empty when
+   * the write is applied.
+   *
+   * @see TreeSpace#setIfEmpty(BlockPos, GiantRedwoodGenerator.TreeBlock)
+   */
+  void setIfEmpty(
+      @Nonnull BlockPos treeCoordinates, @Nullable GiantRedwoodGenerator.TreeBlock block) {
+    add(treeCoordinates, (GiantRedwoodGenerator.TreeBlock.codeOf(block) & 0xFF) | IF_EMPTY);
+  }
+
+  private void add(@Nonnull BlockPos treeCoordinates, int op) {
+    if (size == writes.length) writes = Arrays.copyOf(writes, size * 2);
+    writes[size++] = treeCoordinates.getX();
+    writes[size++] = treeCoordinates.getY();
+    writes[size++] = treeCoordinates.getZ();
+    writes[size++] = op;
+  }
+
+  /** Makes every recorded write to the given tree, in order, and forgets them. */
+  void applyTo(@Nonnull TreeSpace tree) {
+    for (int i = 0; i < size; i += STRIDE) {
+      int op = writes[i + 3];
+      GiantRedwoodGenerator.TreeBlock block =
+          GiantRedwoodGenerator.TreeBlock.fromCode((byte) (op & 0xFF));
+      if ((op & IF_EMPTY) != 0) tree.setIfEmpty(writes[i], writes[i + 1], writes[i + 2], block);
+      else tree.set(writes[i], writes[i + 1], writes[i + 2], block);
+    }
+    size = 0;
+  }
+}
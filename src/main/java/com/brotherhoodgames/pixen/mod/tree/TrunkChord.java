@@ -4,10 +4,20 @@ import javax.annotation.Nonnull;
 import lombok.Builder;
 import lombok.ToString;
 
-/** Represents an individual "chord" in a {@link GiantRedwoodGenerator}'s trunk. */
+/**
+ * Represents an individual "chord" in a {@link GiantRedwoodGenerator}'s trunk.
+ *
+ * <p>A chord's radius in the direction {@code theta}, measured from its angle {@code a}, is {@code
+ * sqrt((rx * sin(theta))^2 + (rz * cos(theta))^2)}. The chord therefore always contains the circle
+ * of radius {@code min(rx, rz)} around its center, and is contained by the circle of radius {@code
+ * max(rx, rz)}.
+ */
 @Builder(builderClassName = "Builder")
 @ToString
 /*package*/ final class TrunkChord {
+  /** The number of values recorded by {@link #writeShape(double[], int)}. */
+  static final int SHAPE_SIZE = 5;
+
   private double x;
   private double z;
   private double rx;
@@ -40,16 +50,77 @@ import lombok.ToString;
   }
 
   double distance(double tx, double tz) {
+    return distance(x, z, rx, rz, a, tx, tz);
+  }
+
+  /**
+   * Records the {@link #SHAPE_SIZE} values of this chord's current state that determine its
+   * {@linkplain #distance(double, double) distance} function: {@code x}, {@code z}, {@code rx},
+   * {@code rz} and {@code a}, in that order.
+   */
+  void writeShape(@Nonnull double[] shapes, int offset) {
+    shapes[offset] = x;
+    shapes[offset + 1] = z;
+    shapes[offset + 2] = rx;
+    shapes[offset + 3] = rz;
+    shapes[offset + 4] = a;
+  }
+
+  /**
+   * @return the distance from the point {@code (tx, tz)} to the edge of a chord with the given
+   *     shape, or {@code 0} if the point lies within the chord.
+   */
+  static double distance(double x, double z, double rx, double rz, double a, double tx, double tz) {
+    return rotatedDistance(x, z, rx, rz, Math.cos(a), Math.sin(a), tx, tz);
+  }
+
+  /**
+   * Like {@link #distance(double, double, double, double, double, double, double)}, but takes the
+   * cosine and sine of the chord's angle rather than the angle itself, so that callers measuring
+   * many points against the same chord only need to calculate them once.
+   */
+  static double rotatedDistance(
+      double x, double z, double rx, double rz, double cosA, double sinA, double tx, double tz) {
+    // The chord's radius in the direction of the point is found by rotating the direction into the
+    // chord's frame, rather than by measuring its angle with atan2 and taking the sine and cosine
+    // of the difference. Without any trigonometry per point, the JIT is free to vectorize loops
+    // over many points. The divisor is clamped so that the chord's own center, where both
+    // numerators are 0, is reported as inside it.
     double dx = tx - x;
     double dz = tz - z;
-    double theta = Math.atan2(dz, dx) - a;
-    double rxSinTheta = rx * Math.sin(theta);
-    double rzCosTheta = rz * Math.cos(theta);
-    double rTheta = Math.sqrt(rxSinTheta * rxSinTheta + rzCosTheta * rzCosTheta);
     double d = Math.sqrt(dx * dx + dz * dz);
+    double rxSinTheta = rx * (dz * cosA - dx * sinA);
+    double rzCosTheta = rz * (dx * cosA + dz * sinA);
+    double rTheta =
+        Math.sqrt(rxSinTheta * rxSinTheta + rzCosTheta * rzCosTheta)
+            / Math.max(d, Double.MIN_NORMAL);
     return Math.max(0, d - rTheta);
   }
 
+  /**
+   * Marks the cells of a row that lie within a chord with the given shape. Cell {@code i}, for
+   * {@code from <= i < to}, is the point {@code (tx, (i + zOffset) / scale)}; {@code inside[i]} is
+   * set if its {@linkplain #rotatedDistance rotated distance} to the chord is {@code 0}, and left
+   * as it was otherwise. Every cell of the span is measured the same way, with no branches between
+   * them, so the JIT can vectorize the loop.
+   */
+  static void markRow(
+      double x,
+      double z,
+      double rx,
+      double rz,
+      double cosA,
+      double sinA,
+      double tx,
+      int zOffset,
+      double scale,
+      @Nonnull boolean[] inside,
+      int from,
+      int to) {
+    for (int i = from; i < to; i++)
+      inside[i] |= rotatedDistance(x, z, rx, rz, cosA, sinA, tx, (i + zOffset) / scale) <= 0;
+  }
+
   static final class Builder {
     /**
      * Indicates that the chord's center point should lie at the normalized origin.
@@ -0,0 +1,152 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * A precomputed table of a trunk's shape at every height: the trunk radius of each slice and the
+ * shape of every {@link TrunkChord} as it was when the slice was reached. Once built, a profile is
+ * immutable, so the slices of the trunk can be rasterized independently of one another.
+ */
+/*package*/ final class TrunkProfile {
+  /**
+   * The relative amount by which the circles bounding a chord are widened or narrowed so that
+   * rounding in the distance function can never put a cell on the wrong side of them.
+   */
+  private static final double ROUNDING_MARGIN = 1e-9;
+
+  private final int chordCount;
+  private final double[] radii;
+  private final double[] shapes;
+  private int height;
+
+  /**
+   * @param chordCount the number of chords the trunk is composed of.
+   * @param maxHeight the maximum number of slices that can be {@linkplain #add(double, List)
+   *     added} to the profile.
+   */
+  TrunkProfile(int chordCount, int maxHeight) {
+    this.chordCount = chordCount;
+    this.radii = new double[maxHeight];
+    this.shapes = new double[maxHeight * chordCount * TrunkChord.SHAPE_SIZE];
+  }
+
+  /** Records the shape of the next slice of the trunk. */
+  void add(double trunkRadius, @Nonnull List<TrunkChord> chords) {
+    int offset = height * chordCount * TrunkChord.SHAPE_SIZE;
+    for (TrunkChord chord : chords) {
+      chord.writeShape(shapes, offset);
+      offset += TrunkChord.SHAPE_SIZE;
+    }
+    radii[height++] = trunkRadius;
+  }
+
+  /**
+   * @return the number of slices recorded in this profile.
+   */
+  int height() {
+    return height;
+  }
+
+  /**
+   * @return {@code true} IFF the profile can't hold any more slices.
+   */
+  boolean isFull() {
+    return height == radii.length;
+  }
+
+  /**
+   * @return the radius of the trunk at slice {@code y}.
+   */
+  double radius(int y) {
+    return radii[y];
+  }
+
+  /**
+   * Finds every cell of slice {@code y} that lies within both the trunk, as described by the
+   * slice's chords scaled by its {@linkplain #radius(int) radius}, and the circle of radius {@code
+   * capRadius} around the origin. Each such cell is passed to {@code visitor} once.
+   *
+   * <p>The cells are found a row at a time. Each chord's bounding circle is solved for the span of
+   * the row it covers, and only the cells in that span are considered. Cells well inside a chord's
+   * inscribed circle are accepted with no further work, and only the runs near a chord's edge are
+   * measured, a run at a time, with {@link TrunkChord#markRow}, so the result is exactly the set of
+   * cells the distance function puts inside.
+   */
+  void rasterize(int y, double capRadius, @Nonnull CellVisitor visitor) {
+    final double trunkRadius = radii[y];
+    final int extent = (int) Math.ceil(capRadius);
+    final double capInnerSqr = sqr(capRadius) * (1 - ROUNDING_MARGIN);
+    final double capOuterSqr = sqr(capRadius) * (1 + ROUNDING_MARGIN);
+    final int base = y * chordCount * TrunkChord.SHAPE_SIZE;
+
+    final double[] cosA = new double[chordCount], sinA = new double[chordCount];
+    for (int c = 0; c < chordCount; c++) {
+      double a = shapes[base + c * TrunkChord.SHAPE_SIZE + 4];
+      cosA[c] = Math.cos(a);
+      sinA[c] = Math.sin(a);
+    }
+
+    final boolean[] inside = new boolean[extent * 2 + 1];
+    for (int treeX = -extent; treeX <= extent; treeX++) {
+      final double nx = treeX / trunkRadius;
+      int rowFrom = inside.length, rowTo = -1;
+
+      for (int c = 0, o = base; c < chordCount; c++, o += TrunkChord.SHAPE_SIZE) {
+        double cx = shapes[o], cz = shapes[o + 1], rx = shapes[o + 2], rz = shapes[o + 3];
+        double outerSqr = sqr(Math.max(rx, rz)) * (1 + ROUNDING_MARGIN);
+        double innerSqr = sqr(Math.min(rx, rz)) * (1 - ROUNDING_MARGIN);
+        double du = nx - cx;
+        if (du * du > outerSqr) continue;
+
+        // Pad the span by a cell on either side so rounding can't shave off an edge cell; the
+        // distance test rejects anything that doesn't belong.
+        double halfSpan = Math.sqrt(outerSqr - du * du) * trunkRadius;
+        double center = cz * trunkRadius + extent;
+        int from = Math.max(0, (int) Math.floor(center - halfSpan) - 1);
+        int to = Math.min(inside.length - 1, (int) Math.ceil(center + halfSpan) + 1);
+        rowFrom = Math.min(rowFrom, from);
+        rowTo = Math.max(rowTo, to);
+
+        // The middle of the span, which lies within the inscribed circle, is inside without being
+        // measured. It's narrowed by a cell on either side, for the same reason the span is padded.
+        int innerFrom = to + 1, innerTo = to;
+        if (du * du < innerSqr) {
+          double innerHalfSpan = Math.sqrt(innerSqr - du * du) * trunkRadius;
+          innerFrom = Math.min(to + 1, Math.max(from, (int) Math.ceil(center - innerHalfSpan) + 1));
+          innerTo = Math.min(to, (int) Math.floor(center + innerHalfSpan) - 1);
+          if (innerTo < innerFrom) innerTo = innerFrom - 1;
+          else Arrays.fill(inside, innerFrom, innerTo + 1, true);
+        }
+        double cos = cosA[c], sin = sinA[c];
+        TrunkChord.markRow(
+            cx, cz, rx, rz, cos, sin, nx, -extent, trunkRadius, inside, from, innerFrom);
+        TrunkChord.markRow(
+            cx, cz, rx, rz, cos, sin, nx, -extent, trunkRadius, inside, innerTo + 1, to + 1);
+      }
+
+      for (int i = rowFrom; i <= rowTo; i++) {
+        if (!inside[i]) continue;
+        inside[i] = false;
+
+        int treeZ = i - extent;
+        double dSqr = treeX * treeX + treeZ * treeZ;
+        if (dSqr < capInnerSqr
+            || (dSqr <= capOuterSqr
+                && TrunkChord.rotatedDistance(0, 0, capRadius, capRadius, 1, 0, treeX, treeZ) <= 0))
+          visitor.visit(treeX, treeZ);
+      }
+    }
+  }
+
+  private static double sqr(double v) {
+    return v * v;
+  }
+
+  /** Receives the tree x and z coordinates of the cells found by {@link #rasterize}. */
+  @FunctionalInterface
+  interface CellVisitor {
+    void visit(int treeX, int treeZ);
+  }
+}
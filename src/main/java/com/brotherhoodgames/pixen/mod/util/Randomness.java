@@ -7,6 +7,8 @@ import javax.annotation.Nullable;
 import net.minecraft.util.RandomSource;
 
 public class Randomness {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
   public static @Nullable <T> T oneOf(@Nonnull RandomSource random, T... options) {
     if (options.length == 0) return null;
     else return options[random.nextInt(options.length)];
@@ -24,5 +26,36 @@ public class Randomness {
       return Optional.ofNullable(options.get(random.nextInt(options.size()))).orElse(defaultValue);
   }
 
+  /**
+   * Produces a pseudo-random value from a seed, a position and a purpose, without any state. The
+   * same arguments always produce the same value, so decisions made per position don't depend on
+   * the order in which the positions are visited, and can be made from any number of threads at
+   * once. Callers making several independent decisions at the same position should use a
+   * different {@code purpose} for each.
+   *
+   * <p>The position is treated as a counter and mixed with the seed using the SplitMix64
+   * finalizer. Only the low 21 bits of each coordinate are significant.
+   *
+   * @return a pseudo-random value evenly distributed over all {@code long} values.
+   */
+  public static long positionalLong(long seed, int x, int y, int z, int purpose) {
+    long key = (x & 0x1FFFFFL) | ((y & 0x1FFFFFL) << 21) | ((z & 0x1FFFFFL) << 42);
+    return mix64(mix64(seed + purpose * GOLDEN_GAMMA) + key * GOLDEN_GAMMA);
+  }
+
+  /**
+   * @return a pseudo-random value in {@code [0, 1)}.
+   * @see #positionalLong(long, int, int, int, int)
+   */
+  public static double positionalDouble(long seed, int x, int y, int z, int purpose) {
+    return (positionalLong(seed, x, y, z, purpose) >>> 11) * 0x1.0p-53;
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
   private Randomness() {}
 }
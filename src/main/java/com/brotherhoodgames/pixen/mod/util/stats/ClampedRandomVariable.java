@@ -1,6 +1,9 @@
 package com.brotherhoodgames.pixen.mod.util.stats;
 
+import java.util.Objects;
+import javax.annotation.Nonnull;
 import lombok.Data;
+import net.minecraft.util.RandomSource;
 
 @Data
 public class ClampedRandomVariable implements RandomVariable {
@@ -12,4 +15,12 @@ public class ClampedRandomVariable implements RandomVariable {
   public double sample(double r) {
     return Math.min(Math.max(min, basis.sample(r)), max);
   }
+
+  @Override
+  public void sample(@Nonnull RandomSource r, @Nonnull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    // Like sample(RandomSource), clamps the basis evaluated at a uniform draw
+    for (int i = from; i < to; i++) out[i] = basis.sample(r.nextDouble());
+    for (int i = from; i < to; i++) out[i] = Math.min(Math.max(min, out[i]), max);
+  }
 }
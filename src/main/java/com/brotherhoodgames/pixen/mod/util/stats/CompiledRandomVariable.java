@@ -0,0 +1,389 @@
+package com.brotherhoodgames.pixen.mod.util.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import net.minecraft.util.RandomSource;
+
+/**
+ * A {@link RandomVariable} graph, such as one built from {@link RandomVariable#clamp clamps} and
+ * {@link RandomVariable#compositeWith composites}, flattened into a single program that samples it
+ * without walking the graph.
+ *
+ * <p>The program gives exactly the same results as the graph, down to the last bit, and draws the
+ * same numbers from a random source in the same order. The compiler only simplifies where that
+ * holds:
+ *
+ * <ul>
+ *   <li>constant, linear and normal variables all become one kind of term, {@code offset + scale *
+ *       draw}, evaluated inline;
+ *   <li>sums and clamps of constants are folded into a single constant, which still draws as many
+ *       numbers as the variables it replaces;
+ *   <li>a clamp of a clamp becomes a single clamp.
+ * </ul>
+ *
+ * Sums keep the shape they have in the graph, since adding the same terms in a different order can
+ * round differently. Variables the compiler doesn't know are sampled as they are, in place.
+ *
+ * <p>{@link #sample(Random)} and {@link #sampleFloat(float)} aren't compiled; they walk the graph.
+ */
+/*package*/ final class CompiledRandomVariable implements RandomVariable {
+  private final @Nonnull RandomVariable source;
+  private final @Nonnull Program draws;
+  private final @Nonnull Program values;
+
+  private CompiledRandomVariable(@Nonnull RandomVariable source) {
+    this.source = source;
+    this.draws = Program.of(fold(drawing(source)));
+    this.values = Program.of(fold(valuing(source)));
+  }
+
+  /**
+   * @return a variable that samples exactly like {@code variable}, but faster.
+   */
+  static @Nonnull RandomVariable compile(@Nonnull RandomVariable variable) {
+    return variable instanceof CompiledRandomVariable
+        ? variable
+        : new CompiledRandomVariable(variable);
+  }
+
+  @Override
+  public double sample(double x) {
+    return values.run(x, null);
+  }
+
+  @Override
+  public double sample(@Nonnull Random r) {
+    return source.sample(r);
+  }
+
+  @Override
+  public double sample(@Nonnull RandomSource r) {
+    return draws.run(0, r);
+  }
+
+  @Override
+  public void sample(@Nonnull RandomSource r, @Nonnull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    for (int i = from; i < to; i++) out[i] = draws.run(0, r);
+  }
+
+  @Override
+  public float sampleFloat(float x) {
+    return source.sampleFloat(x);
+  }
+
+  /** Compiled variables are serialized as the graph they were compiled from. */
+  private @Nonnull Object writeReplace() {
+    return source;
+  }
+
+  @Override
+  public @Nonnull String toString() {
+    return "CompiledRandomVariable(" + source + ")";
+  }
+
+  // An intermediate form of the graph, which is simplified before it's turned into a program.
+  private sealed interface Expr {}
+
+  /** A constant, which is drawn from the random source {@code draws} times and then ignored. */
+  private record Constant(double value, int draws) implements Expr {}
+
+  /** {@code offset + scale * d}, for a uniform or gaussian draw {@code d}, or for the input. */
+  private record Affine(int kind, double offset, double scale) implements Expr {}
+
+  /** The density of a {@link NormalVariable}, evaluated at the input. */
+  private record Density(double mean, double standardDeviation, double term) implements Expr {}
+
+  private record Clamp(@Nonnull Expr basis, double min, double max) implements Expr {}
+
+  private record Sum(@Nonnull Expr lhs, @Nonnull Expr rhs) implements Expr {}
+
+  /** Draws a uniform number, and evaluates {@code basis} with it as the input. */
+  private record DrawInput(@Nonnull Expr basis) implements Expr {}
+
+  /** A variable the compiler doesn't know, sampled from the random source or at the input. */
+  private record Opaque(@Nonnull RandomVariable variable, boolean drawing) implements Expr {}
+
+  /**
+   * @return the expression for {@code variable.sample(RandomSource)}.
+   */
+  private static @Nonnull Expr drawing(@Nonnull RandomVariable variable) {
+    // Compare exact classes, since a subclass may sample differently
+    Class<?> type = variable.getClass();
+    if (type == ConstantVariable.class) {
+      return new Constant(((ConstantVariable) variable).c, 1);
+    } else if (type == LinearVariable.class) {
+      LinearVariable linear = (LinearVariable) variable;
+      return new Affine(Program.UNIFORM, linear.getOffset(), linear.getSlope());
+    } else if (type == NormalVariable.class || type == ConfidenceIntervalNormalVariable.class) {
+      NormalVariable normal = (NormalVariable) variable;
+      return new Affine(Program.GAUSSIAN, normal.getMean(), normal.getStandardDeviation());
+    } else if (type == ClampedRandomVariable.class) {
+      // Clamped variables sample their basis at a uniform draw
+      return new DrawInput(valuing(variable));
+    } else if (type == CompositeRandomVariable.class) {
+      CompositeRandomVariable composite = (CompositeRandomVariable) variable;
+      return new Sum(drawing(composite.getLhs()), drawing(composite.getRhs()));
+    } else if (type == CompiledRandomVariable.class) {
+      return drawing(((CompiledRandomVariable) variable).source);
+    } else {
+      return new Opaque(variable, true);
+    }
+  }
+
+  /**
+   * @return the expression for {@code variable.sample(double)}.
+   */
+  private static @Nonnull Expr valuing(@Nonnull RandomVariable variable) {
+    Class<?> type = variable.getClass();
+    if (type == ConstantVariable.class) {
+      return new Constant(((ConstantVariable) variable).c, 0);
+    } else if (type == LinearVariable.class) {
+      LinearVariable linear = (LinearVariable) variable;
+      return new Affine(Program.INPUT, linear.getOffset(), linear.getSlope());
+    } else if (type == NormalVariable.class || type == ConfidenceIntervalNormalVariable.class) {
+      NormalVariable normal = (NormalVariable) variable;
+      return new Density(normal.getMean(), normal.getStandardDeviation(), normal.getTerm());
+    } else if (type == ClampedRandomVariable.class) {
+      ClampedRandomVariable clamped = (ClampedRandomVariable) variable;
+      return new Clamp(valuing(clamped.getBasis()), clamped.getMin(), clamped.getMax());
+    } else if (type == CompositeRandomVariable.class) {
+      CompositeRandomVariable composite = (CompositeRandomVariable) variable;
+      return new Sum(valuing(composite.getLhs()), valuing(composite.getRhs()));
+    } else if (type == CompiledRandomVariable.class) {
+      return valuing(((CompiledRandomVariable) variable).source);
+    } else {
+      return new Opaque(variable, false);
+    }
+  }
+
+  /**
+   * @return an expression that evaluates to exactly the same value as {@code expr}, with the same
+   *     draws, but with fewer steps.
+   */
+  private static @Nonnull Expr fold(@Nonnull Expr expr) {
+    if (expr instanceof Sum sum) {
+      Expr lhs = fold(sum.lhs()), rhs = fold(sum.rhs());
+      if (lhs instanceof Constant l && rhs instanceof Constant r)
+        return new Constant(l.value() + r.value(), l.draws() + r.draws());
+      return new Sum(lhs, rhs);
+    } else if (expr instanceof Clamp clamp) {
+      Expr basis = fold(clamp.basis());
+      double min = clamp.min(), max = clamp.max();
+      if (basis instanceof Constant c)
+        return new Constant(Math.min(Math.max(min, c.value()), max), c.draws());
+      // Clamping twice is the same as clamping once to wherever the two clamps send the
+      // extremes, as long as neither clamp's bounds are reversed or NaN
+      if (basis instanceof Clamp inner && inner.min() <= inner.max() && min <= max) {
+        double innerLow = Math.min(inner.min(), inner.max());
+        return new Clamp(
+            inner.basis(),
+            Math.min(Math.max(min, innerLow), max),
+            Math.min(Math.max(min, inner.max()), max));
+      }
+      return new Clamp(basis, min, max);
+    } else if (expr instanceof DrawInput draw) {
+      Expr basis = fold(draw.basis());
+      if (basis instanceof Constant c) return new Constant(c.value(), c.draws() + 1);
+      return new DrawInput(basis);
+    } else {
+      return expr;
+    }
+  }
+
+  /**
+   * An expression compiled to a sequence of operations on a stack of values. Values are computed in
+   * the order the graph computes them, so random numbers are drawn in the same order too. The top
+   * of the stack is held in a local, so expressions that never need more than one value at a time,
+   * such as a sum built up term by term, need no stack at all. The rest of the stack lives in a
+   * scratch array kept for each thread, so running a program never allocates.
+   */
+  private static final class Program {
+    // Operations
+    private static final int CONSTANT = 0;
+    private static final int UNIFORM = 1;
+    private static final int GAUSSIAN = 2;
+    private static final int INPUT = 3;
+    private static final int DENSITY = 4;
+    private static final int DRAW_INPUT = 5;
+    private static final int OPAQUE_DRAW = 6;
+    private static final int OPAQUE_VALUE = 7;
+    private static final int CLAMP = 8;
+    private static final int ADD = 9;
+
+    // Flags an operation that produces a value to add to the top of the stack, instead of pushing
+    private static final int ACCUMULATE = 0x100;
+    private static final int OPERATION = 0xFF;
+
+    private final int[] operations;
+    private final int[] counts;
+    private final double[] a;
+    private final double[] b;
+    private final double[] c;
+    private final Object[] operands;
+    private final @Nullable ThreadLocal<double[]> stack;
+
+    private Program(@Nonnull Compiler compiler) {
+      int n = compiler.operations.size();
+      this.operations = new int[n];
+      this.counts = new int[n];
+      this.a = new double[n];
+      this.b = new double[n];
+      this.c = new double[n];
+      this.operands = new Object[n];
+      for (int i = 0; i < n; i++) {
+        Operation operation = compiler.operations.get(i);
+        operations[i] = operation.code;
+        counts[i] = operation.count;
+        a[i] = operation.a;
+        b[i] = operation.b;
+        c[i] = operation.c;
+        operands[i] = operation.operand;
+      }
+      int slots = compiler.maxDepth - 1;
+      this.stack = slots > 0 ? ThreadLocal.withInitial(() -> new double[slots]) : null;
+    }
+
+    static @Nonnull Program of(@Nonnull Expr expr) {
+      Compiler compiler = new Compiler();
+      compiler.emit(expr, false);
+      return new Program(compiler);
+    }
+
+    /**
+     * @param x the input, for programs that sample at a value.
+     * @param r the random source, for programs that draw; may be {@code null} for programs that
+     *     don't.
+     */
+    double run(double x, @Nullable RandomSource r) {
+      // A program never runs inside itself, so each thread only ever needs one stack per program
+      double[] below = stack == null ? null : stack.get();
+      int size = 0;
+      double top = 0;
+      for (int i = 0; i < operations.length; i++) {
+        int operation = operations[i];
+        double value;
+        switch (operation & OPERATION) {
+          case CONSTANT -> {
+            for (int d = counts[i]; d > 0; d--) r.nextDouble();
+            value = a[i];
+          }
+          case UNIFORM -> value = a[i] + b[i] * r.nextDouble();
+          case GAUSSIAN -> value = r.nextGaussian() * b[i] + a[i];
+          case INPUT -> value = a[i] + b[i] * x;
+          case DENSITY -> {
+            // Exactly as NormalVariable.sample(double)
+            double meanTerm = (x - a[i]) / b[i];
+            value = c[i] * Math.pow(Math.E, -0.5 * meanTerm * meanTerm);
+          }
+          case DRAW_INPUT -> value = ((Program) operands[i]).run(r.nextDouble(), r);
+          case OPAQUE_DRAW -> value = ((RandomVariable) operands[i]).sample(r);
+          case OPAQUE_VALUE -> value = ((RandomVariable) operands[i]).sample(x);
+          case CLAMP -> {
+            top = Math.min(Math.max(a[i], top), b[i]);
+            continue;
+          }
+          case ADD -> {
+            top = below[size - 2] + top;
+            size--;
+            continue;
+          }
+          default -> throw new IllegalStateException("Unknown operation " + operation);
+        }
+
+        if ((operation & ACCUMULATE) != 0) {
+          top = top + value;
+        } else {
+          if (size > 0) below[size - 1] = top;
+          top = value;
+          size++;
+        }
+      }
+      return top;
+    }
+  }
+
+  /** One operation of a program, while it's being compiled. */
+  private static final class Operation {
+    int code;
+    int count;
+    double a;
+    double b;
+    double c;
+    @Nullable Object operand;
+
+    Operation(int code) {
+      this.code = code;
+    }
+  }
+
+  /** Turns an expression into a program's operations, tracking how deep its stack gets. */
+  private static final class Compiler {
+    final List<Operation> operations = new ArrayList<>();
+    int depth;
+    int maxDepth;
+
+    /**
+     * Emits the operations that compute {@code expr}.
+     *
+     * @param accumulate whether the value should be added to the top of the stack, rather than
+     *     pushed onto it.
+     */
+    void emit(@Nonnull Expr expr, boolean accumulate) {
+      if (expr instanceof Sum sum) {
+        // Only single operations are ever accumulated; see below
+        emit(sum.lhs(), false);
+        if (sum.rhs() instanceof Sum || sum.rhs() instanceof Clamp) {
+          // The right-hand side needs a stack slot of its own
+          emit(sum.rhs(), false);
+          operations.add(new Operation(Program.ADD));
+          depth--;
+        } else {
+          emit(sum.rhs(), true);
+        }
+        return;
+      } else if (expr instanceof Clamp clamp) {
+        emit(clamp.basis(), false);
+        Operation operation = new Operation(Program.CLAMP);
+        operation.a = clamp.min();
+        operation.b = clamp.max();
+        operations.add(operation);
+        return;
+      }
+
+      Operation operation;
+      if (expr instanceof Constant constant) {
+        operation = new Operation(Program.CONSTANT);
+        operation.count = constant.draws();
+        operation.a = constant.value();
+      } else if (expr instanceof Affine affine) {
+        operation = new Operation(affine.kind());
+        operation.a = affine.offset();
+        operation.b = affine.scale();
+      } else if (expr instanceof Density density) {
+        operation = new Operation(Program.DENSITY);
+        operation.a = density.mean();
+        operation.b = density.standardDeviation();
+        operation.c = density.term();
+      } else if (expr instanceof DrawInput draw) {
+        operation = new Operation(Program.DRAW_INPUT);
+        operation.operand = Program.of(draw.basis());
+      } else {
+        Opaque opaque = (Opaque) expr;
+        operation = new Operation(opaque.drawing() ? Program.OPAQUE_DRAW : Program.OPAQUE_VALUE);
+        operation.operand = opaque.variable();
+      }
+      if (accumulate) {
+        operation.code |= Program.ACCUMULATE;
+      } else {
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+      }
+      operations.add(operation);
+    }
+  }
+}
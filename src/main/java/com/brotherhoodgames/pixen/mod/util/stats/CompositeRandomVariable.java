@@ -1,5 +1,6 @@
 package com.brotherhoodgames.pixen.mod.util.stats;
 
+import java.util.Objects;
 import java.util.Random;
 import lombok.Data;
 import net.minecraft.util.RandomSource;
@@ -25,6 +26,13 @@ public class CompositeRandomVariable implements RandomVariable {
     return lhs.sample(r) + rhs.sample(r);
   }
 
+  @Override
+  public void sample(@NotNull RandomSource r, @NotNull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    // Each sample draws from both sides in turn, so the sides can't be sampled in separate passes
+    for (int i = from; i < to; i++) out[i] = lhs.sample(r) + rhs.sample(r);
+  }
+
   @Override
   public float sampleFloat(float x) {
     return lhs.sampleFloat(x) + rhs.sampleFloat(x);
@@ -1,6 +1,10 @@
 package com.brotherhoodgames.pixen.mod.util.stats;
 
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nonnull;
 import lombok.Data;
+import net.minecraft.util.RandomSource;
 
 @Data
 public class ConstantVariable implements RandomVariable {
@@ -10,4 +14,12 @@ public class ConstantVariable implements RandomVariable {
   public double sample(double x) {
     return c;
   }
+
+  @Override
+  public void sample(@Nonnull RandomSource r, @Nonnull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    // Sampling one value at a time draws a number it doesn't use; keep r in step with that
+    for (int i = from; i < to; i++) r.nextDouble();
+    Arrays.fill(out, from, to, c);
+  }
 }
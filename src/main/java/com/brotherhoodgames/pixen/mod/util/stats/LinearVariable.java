@@ -1,7 +1,9 @@
 package com.brotherhoodgames.pixen.mod.util.stats;
 
+import java.util.Objects;
 import javax.annotation.Nonnull;
 import lombok.Data;
+import net.minecraft.util.RandomSource;
 
 @Data
 public class LinearVariable implements RandomVariable {
@@ -20,4 +22,10 @@ public class LinearVariable implements RandomVariable {
   public double sample(double x) {
     return offset + slope * x;
   }
+
+  @Override
+  public void sample(@Nonnull RandomSource r, @Nonnull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    for (int i = from; i < to; i++) out[i] = offset + slope * r.nextDouble();
+  }
 }
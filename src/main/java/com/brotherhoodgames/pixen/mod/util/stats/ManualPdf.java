@@ -3,21 +3,32 @@ package com.brotherhoodgames.pixen.mod.util.stats;
 import com.brotherhoodgames.pixen.mod.util.DoubleRange;
 import com.brotherhoodgames.pixen.mod.util.NonnullFunction;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableList;
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
 import java.util.stream.DoubleStream;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import org.jetbrains.annotations.NotNull;
 
+/**
+ * A {@link Pdf} defined by a list of equally wide bins over the unit interval, each holding the
+ * probability of a sample landing in it.
+ *
+ * <p>The bins and their running totals are kept as primitive arrays. Inverting the CDF starts from
+ * a guide table that maps each of {@code n} equal slices of the unit interval to the first bin
+ * whose running total passes the start of the slice, so finding a sample's bin takes constant time
+ * on average and never allocates.
+ */
 public class ManualPdf implements Pdf {
   @VisibleForTesting static final double EPSILON = 1e-9;
 
   private final SampleInterpolator interpolator;
-  private final ImmutableList<Double> pdf;
-  private final ImmutableList<Double> cdf;
+  private final double[] pdf;
+  private final double[] cdf;
+  private final int[] guide;
+  private final double maxDensity;
 
   public ManualPdf(@Nonnull double... distribution) {
     this(DoubleStream.of(distribution).boxed());
@@ -43,58 +54,75 @@ public class ManualPdf implements Pdf {
   public <N extends Number> ManualPdf(
       @Nonnull SampleInterpolator interpolator, @Nonnull Stream<N> distribution) {
     this.interpolator = interpolator;
-    double[] total = {0};
-    boolean[] nullElement = {false};
-    Number[] invalid = {null};
-
-    ImmutableList.Builder<Double> cdf = ImmutableList.builder();
-    this.pdf =
-        distribution
-            .map(
-                n -> {
-                  if (n == null) {
-                    nullElement[0] = true;
-                    return 0d;
-                  }
-                  double d = n.doubleValue();
-                  if (d < 0 && invalid[0] == null) {
-                    invalid[0] = n;
-                  }
-                  total[0] += d;
-                  cdf.add(total[0]);
-                  return d;
-                })
-            .collect(ImmutableList.toImmutableList());
-    this.cdf = cdf.build();
-
-    if (Math.abs(1.0 - total[0]) > EPSILON) {
+    double total = 0;
+    boolean nullElement = false;
+    Number invalid = null;
+
+    List<N> elements = distribution.toList();
+    this.pdf = new double[elements.size()];
+    this.cdf = new double[elements.size()];
+    for (int i = 0; i < pdf.length; i++) {
+      N n = elements.get(i);
+      if (n == null) {
+        nullElement = true;
+      } else {
+        double d = n.doubleValue();
+        if (d < 0 && invalid == null) {
+          invalid = n;
+        }
+        pdf[i] = d;
+        total += d;
+      }
+      cdf[i] = total;
+    }
+
+    if (Math.abs(1.0 - total) > EPSILON) {
       throw new IllegalArgumentException("Distribution stream did not sum to 1.0");
-    } else if (nullElement[0]) {
+    } else if (nullElement) {
       throw new NullPointerException("Distribution contained at least one null element");
-    } else if (invalid[0] != null) {
-      throw new IllegalArgumentException("Distribution contained an invalid element " + invalid[0]);
+    } else if (invalid != null) {
+      throw new IllegalArgumentException("Distribution contained an invalid element " + invalid);
+    }
+
+    this.guide = buildGuide(cdf);
+    this.maxDensity = DoubleStream.of(pdf).max().orElse(0);
+  }
+
+  /**
+   * @return a table with one entry per bin, where entry {@code j} is the index of the first bin
+   *     whose running total exceeds {@code j / n}, or {@code n} if there's no such bin.
+   */
+  private static @Nonnull int[] buildGuide(@Nonnull double[] cdf) {
+    int n = cdf.length;
+    int[] guide = new int[n];
+    int i = 0;
+    for (int j = 0; j < n; j++) {
+      double start = (double) j / n;
+      while (i < n && cdf[i] <= start) i++;
+      guide[j] = i;
     }
+    return guide;
   }
 
   public @Nonnull double[] pdfToArray() {
-    return pdf.stream().mapToDouble(Double::doubleValue).toArray();
+    return pdf.clone();
   }
 
   public @Nonnull double[] cdfToArray() {
-    return cdf.stream().mapToDouble(Double::doubleValue).toArray();
+    return cdf.clone();
   }
 
   @Override
   public double samplePdf(double x) {
     if (x < 0 || x > 1) return 0;
 
-    double pos = x * pdf.size();
+    double pos = x * pdf.length;
     int i = (int) Math.floor(pos) - 1;
-    if (i < -1 || i > pdf.size()) {
+    if (i < -1 || i > pdf.length) {
       return 0;
     } else {
-      double min = i >= 0 && i < pdf.size() ? pdf.get(i) : 0;
-      double max = i < pdf.size() - 1 ? pdf.get(i + 1) : 0;
+      double min = i >= 0 && i < pdf.length ? pdf[i] : 0;
+      double max = i < pdf.length - 1 ? pdf[i + 1] : 0;
       return interpolator.lerp(min, max, pos - i + 1);
     }
   }
@@ -104,34 +132,45 @@ public class ManualPdf implements Pdf {
     if (x <= 0) return 0;
     if (x >= 1) return 1;
 
-    int i = Collections.binarySearch(cdf, x);
-    if (i < 0) {
-      i = -i - 1;
-    } else {
-      i++;
-    }
+    // Find the first bin whose running total exceeds x, starting from the guide table's estimate.
+    // The backward step only runs when rounding puts x just below the start of its slice.
+    int n = cdf.length;
+    int i = guide[Math.min((int) (x * n), n - 1)];
+    while (i > 0 && cdf[i - 1] > x) i--;
+    while (i < n && cdf[i] <= x) i++;
 
-    double maxSample = i < cdf.size() ? cdf.get(i) : 1;
-    double minSample = i > 0 ? cdf.get(i - 1) : 0;
+    double maxSample = i < n ? cdf[i] : 1;
+    double minSample = i > 0 ? cdf[i - 1] : 0;
     double sampleRange = maxSample - minSample;
 
     double iInt =
         interpolator.lerp(i, i + 1.0, sampleRange < EPSILON ? 0 : (x - minSample) / sampleRange);
 
-    return iInt / cdf.size();
+    return iInt / n;
   }
 
   @NotNull
   @Override
   public NonnullFunction<Double, Double> pdfToFunction(
       @Nonnull DoubleRange domain, @Nonnull DoubleRange range) {
-    final double max = pdf.stream().mapToDouble(d -> d).max().orElse(0);
-    final double min = 0;
-    final double existingRange = max - min;
+    DoubleUnaryOperator operator = pdfToOperator(domain, range);
+    return operator::applyAsDouble;
+  }
+
+  /**
+   * Scales the distribution so that its largest bin maps to the top of {@code range}, and an empty
+   * bin to the bottom.
+   */
+  @Override
+  public @Nonnull DoubleUnaryOperator pdfToOperator(
+      @Nonnull DoubleRange domain, @Nonnull DoubleRange range) {
+    final double domainMin = domain.min, domainWidth = domain.width;
+    final double rangeMin = range.min, rangeWidth = range.width;
+    final double existingRange = maxDensity;
     return x -> {
-      double normalizedX = domain.normalize(x);
-      double normalizedSample = (samplePdf(normalizedX) - min) / existingRange;
-      return range.lerp(normalizedSample);
+      double normalizedX = (x - domainMin) / domainWidth;
+      double normalizedSample = samplePdf(normalizedX) / existingRange;
+      return rangeMin + rangeWidth * normalizedSample;
     };
   }
 
@@ -1,5 +1,6 @@
 package com.brotherhoodgames.pixen.mod.util.stats;
 
+import java.util.Objects;
 import java.util.Random;
 import javax.annotation.Nonnull;
 import lombok.EqualsAndHashCode;
@@ -39,4 +40,10 @@ public class NormalVariable implements RandomVariable {
   public double sample(@NotNull RandomSource r) {
     return r.nextGaussian() * standardDeviation + mean;
   }
+
+  @Override
+  public void sample(@Nonnull RandomSource r, @Nonnull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    for (int i = from; i < to; i++) out[i] = r.nextGaussian() * standardDeviation + mean;
+  }
 }
@@ -5,6 +5,7 @@ import static com.brotherhoodgames.pixen.mod.util.DoubleRange.UNIT_RANGE;
 import com.brotherhoodgames.pixen.mod.util.DoubleRange;
 import com.brotherhoodgames.pixen.mod.util.NonnullFunction;
 import java.io.Serializable;
+import java.util.function.DoubleUnaryOperator;
 import javax.annotation.Nonnull;
 import net.minecraft.util.RandomSource;
 
@@ -22,6 +23,18 @@ public interface Pdf extends Serializable {
     return x -> UNIT_RANGE.project(this.samplePdf(domain.normalize(x)), range);
   }
 
+  /**
+   * @return the same function as {@link #pdfToFunction(DoubleRange, DoubleRange)}, in a primitive
+   *     form that doesn't box its argument or result. Build it once and reuse it wherever the
+   *     domain and range stay the same; implementations do any work that doesn't depend on the
+   *     argument up front.
+   */
+  default @Nonnull DoubleUnaryOperator pdfToOperator(
+      @Nonnull DoubleRange domain, @Nonnull DoubleRange range) {
+    NonnullFunction<Double, Double> function = pdfToFunction(domain, range);
+    return function::apply;
+  }
+
   static @Nonnull DoubleRange.RangeMaxBuilder domainFrom(double min) {
     return DoubleRange.from(min);
   }
@@ -1,6 +1,7 @@
 package com.brotherhoodgames.pixen.mod.util.stats;
 
 import java.io.Serializable;
+import java.util.Objects;
 import java.util.Random;
 import javax.annotation.Nonnull;
 import net.minecraft.util.RandomSource;
@@ -16,6 +17,19 @@ public interface RandomVariable extends Serializable {
     return sample(r.nextDouble());
   }
 
+  /**
+   * Fills {@code out[from]} through {@code out[to - 1]} with samples drawn using {@code r}. The
+   * samples, and the numbers drawn from {@code r}, are exactly those of {@code to - from}
+   * consecutive calls to {@link #sample(RandomSource)}.
+   *
+   * @throws IndexOutOfBoundsException if {@code from} and {@code to} don't describe a range within
+   *     {@code out}.
+   */
+  default void sample(@Nonnull RandomSource r, @Nonnull double[] out, int from, int to) {
+    Objects.checkFromToIndex(from, to, out.length);
+    for (int i = from; i < to; i++) out[i] = sample(r);
+  }
+
   default float sampleFloat(float x) {
     return (float) sample(x);
   }
@@ -27,4 +41,13 @@ public interface RandomVariable extends Serializable {
   default @Nonnull RandomVariable compositeWith(@Nonnull RandomVariable rhs) {
     return new CompositeRandomVariable(this, rhs);
   }
+
+  /**
+   * @return a variable that samples exactly like this one, but that evaluates the graph of clamps
+   *     and composites beneath it as a single flat program. Worth it for variables that are sampled
+   *     many times.
+   */
+  default @Nonnull RandomVariable compile() {
+    return CompiledRandomVariable.compile(this);
+  }
 }
@@ -0,0 +1,202 @@
+package com.brotherhoodgames.pixen.mod.world;
+
+import com.brotherhoodgames.pixen.mod.PixenConfig;
+import com.brotherhoodgames.pixen.mod.PixenMod;
+import com.brotherhoodgames.pixen.mod.tree.GeneratedBlocks;
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.TreeBlock;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+/**
+ * Places generated blocks in the world a little at a time, so that a large tree never holds up a
+ * server tick.
+ *
+ * <p>At the end of every server tick, the queue places blocks until it has used up {@linkplain
+ * PixenConfig#TREE_PLACEMENT_BUDGET_NANOS the tick's budget}, then picks up where it left off on
+ * the next tick. Placements are worked through in the order they were queued, and each one is
+ * placed a chunk section at a time from the lowest sections up, so trees grow from the ground.
+ *
+ * <p>The queue belongs to the server thread: {@link #enqueue} must be called on it. A {@link
+ * Placement}'s progress can be read, and the placement cancelled, from any thread.
+ */
+@Mod.EventBusSubscriber(modid = PixenMod.MOD_ID)
+public final class BlockPlacementQueue {
+  private static final BlockPlacementQueue INSTANCE = new BlockPlacementQueue();
+
+  // The number of blocks placed between checks of the clock.
+  private static final int BLOCKS_PER_CLOCK_CHECK = 16;
+
+  private final ArrayDeque<Placement> placements = new ArrayDeque<>();
+
+  private BlockPlacementQueue() {}
+
+  public static @Nonnull BlockPlacementQueue get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Queues the given blocks to be placed in {@code level}, starting on the next tick.
+   *
+   * @param states maps each generated block to the state it should be placed as.
+   */
+  public @Nonnull Placement enqueue(
+      @Nonnull ServerLevel level,
+      @Nonnull GeneratedBlocks blocks,
+      @Nonnull Function<TreeBlock, BlockState> states) {
+    Placement placement = new Placement(level, blocks, states);
+    placements.add(placement);
+    return placement;
+  }
+
+  /**
+   * @return a snapshot of the placements that haven't yet finished, in the order they'll be
+   *     worked on.
+   */
+  public @Nonnull List<Placement> pending() {
+    return List.copyOf(placements);
+  }
+
+  /** Places queued blocks until the given budget, in nanoseconds, is used up. */
+  /*package*/ void tick(long budgetNanos) {
+    long deadline = System.nanoTime() + budgetNanos;
+    while (!placements.isEmpty()) {
+      Placement placement = placements.peek();
+      if (placement.placeUntil(deadline)) placements.poll();
+      else break;
+    }
+  }
+
+  @SubscribeEvent
+  public static void onServerTick(@Nonnull TickEvent.ServerTickEvent e) {
+    if (e.phase == TickEvent.Phase.END && !INSTANCE.placements.isEmpty())
+      INSTANCE.tick(PixenConfig.TREE_PLACEMENT_BUDGET_NANOS.get());
+  }
+
+  @SubscribeEvent
+  public static void onServerStopping(@Nonnull ServerStoppingEvent e) {
+    INSTANCE.placements.forEach(Placement::cancel);
+    INSTANCE.placements.clear();
+  }
+
+  /** A set of generated blocks on their way into a level. */
+  public static final class Placement {
+    private final @Nonnull ServerLevel level;
+    private final @Nonnull GeneratedBlocks blocks;
+    private final @Nonnull Function<TreeBlock, BlockState> states;
+    private final @Nonnull int[] batchOrder;
+    private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+    private int nextBatch;
+    private int nextBlock;
+    private volatile int placed;
+
+    private Placement(
+        @Nonnull ServerLevel level,
+        @Nonnull GeneratedBlocks blocks,
+        @Nonnull Function<TreeBlock, BlockState> states) {
+      this.level = level;
+      this.blocks = blocks;
+      this.states = states;
+      // Stable, so sections in the same layer keep the order they were generated in.
+      this.batchOrder =
+          IntStream.range(0, blocks.batchCount())
+              .boxed()
+              .sorted(Comparator.comparingInt(batch -> SectionPos.y(blocks.batchSection(batch))))
+              .mapToInt(Integer::intValue)
+              .toArray();
+      if (batchOrder.length > 0) nextBlock = blocks.batchStart(batchOrder[0]);
+    }
+
+    /**
+     * @return the level the blocks are being placed in.
+     */
+    public @Nonnull ServerLevel level() {
+      return level;
+    }
+
+    /**
+     * @return the number of blocks placed so far.
+     */
+    public int placedBlocks() {
+      return placed;
+    }
+
+    /**
+     * @return the total number of blocks to place.
+     */
+    public int totalBlocks() {
+      return blocks.size();
+    }
+
+    /**
+     * @return the fraction of the blocks placed so far, from {@code 0} to {@code 1}.
+     */
+    public double progress() {
+      return blocks.size() == 0 ? 1 : placed / (double) blocks.size();
+    }
+
+    /**
+     * @return a future that completes with the number of blocks placed once every block is in the
+     *     level, or is cancelled if the placement is.
+     */
+    public @Nonnull CompletableFuture<Integer> completion() {
+      return completion;
+    }
+
+    /**
+     * Stops placing blocks. Blocks that have already been placed stay in the level; the rest are
+     * dropped the next time the queue reaches this placement.
+     */
+    public void cancel() {
+      completion.cancel(false);
+    }
+
+    /**
+     * Places blocks until they run out or the clock passes {@code deadline}.
+     *
+     * @return {@code true} if this placement is finished, either because every block has been
+     *     placed or because it was cancelled.
+     */
+    private boolean placeUntil(long deadline) {
+      if (completion.isDone()) return true;
+
+      int count = placed;
+      while (nextBatch < batchOrder.length) {
+        int end = blocks.batchEnd(batchOrder[nextBatch]);
+        while (nextBlock < end) {
+          level.setBlock(
+              pos.set(blocks.position(nextBlock)),
+              states.apply(blocks.block(nextBlock)),
+              Block.UPDATE_ALL);
+          nextBlock++;
+
+          if (++count % BLOCKS_PER_CLOCK_CHECK == 0 && System.nanoTime() - deadline >= 0) {
+            placed = count;
+            return false;
+          }
+        }
+
+        if (++nextBatch < batchOrder.length) nextBlock = blocks.batchStart(batchOrder[nextBatch]);
+      }
+
+      placed = count;
+      completion.complete(count);
+      return true;
+    }
+  }
+}
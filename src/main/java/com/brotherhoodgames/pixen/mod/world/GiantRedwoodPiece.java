@@ -0,0 +1,121 @@
+package com.brotherhoodgames.pixen.mod.world;
+
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerationParameters;
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.TreeBlock;
+import com.brotherhoodgames.pixen.mod.tree.TreeTemplate;
+import com.mojang.logging.LogUtils;
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.util.RandomSource;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.StructureManager;
+import net.minecraft.world.level.WorldGenLevel;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.chunk.ChunkGenerator;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.StructurePiece;
+import net.minecraft.world.level.levelgen.structure.pieces.StructurePieceSerializationContext;
+import org.slf4j.Logger;
+
+/**
+ * One chunk's share of a {@link GiantRedwoodStructure}. The piece only records which tree it
+ * belongs to and which of the tree's cells are its own; the blocks come from the tree's saved
+ * template when the chunk is decorated.
+ */
+public class GiantRedwoodPiece extends StructurePiece {
+  private static final Logger LOGGER = LogUtils.getLogger();
+
+  private final long seed;
+  private final long parametersFingerprint;
+  private final @Nonnull BlockPos origin;
+  private final int fromCell;
+  private final int toCell;
+
+  /**
+   * @param seed the seed the tree was generated from.
+   * @param parametersFingerprint the {@linkplain GiantRedwoodGenerationParameters#fingerprint()
+   *     fingerprint} of the parameters the tree was generated from.
+   * @param origin the world position the tree is rooted at.
+   * @param fromCell the index of the first of the template's cells that this piece places.
+   * @param toCell one past the index of the last of the template's cells that this piece places.
+   * @param box the part of the tree this piece places.
+   */
+  public GiantRedwoodPiece(
+      long seed,
+      long parametersFingerprint,
+      @Nonnull BlockPos origin,
+      int fromCell,
+      int toCell,
+      @Nonnull BoundingBox box) {
+    super(ModStructures.GIANT_REDWOOD_PIECE.get(), 0, box);
+    this.seed = seed;
+    this.parametersFingerprint = parametersFingerprint;
+    this.origin = origin;
+    this.fromCell = fromCell;
+    this.toCell = toCell;
+  }
+
+  public GiantRedwoodPiece(@Nonnull CompoundTag tag) {
+    super(ModStructures.GIANT_REDWOOD_PIECE.get(), tag);
+    this.seed = tag.getLong("Seed");
+    this.parametersFingerprint = tag.getLong("Fingerprint");
+    this.origin = new BlockPos(tag.getInt("OriginX"), tag.getInt("OriginY"), tag.getInt("OriginZ"));
+    this.fromCell = tag.getInt("FromCell");
+    this.toCell = tag.getInt("ToCell");
+  }
+
+  @Override
+  protected void addAdditionalSaveData(
+      @Nonnull StructurePieceSerializationContext context, @Nonnull CompoundTag tag) {
+    tag.putLong("Seed", seed);
+    tag.putLong("Fingerprint", parametersFingerprint);
+    tag.putInt("OriginX", origin.getX());
+    tag.putInt("OriginY", origin.getY());
+    tag.putInt("OriginZ", origin.getZ());
+    tag.putInt("FromCell", fromCell);
+    tag.putInt("ToCell", toCell);
+  }
+
+  @Override
+  public void postProcess(
+      @Nonnull WorldGenLevel level,
+      @Nonnull StructureManager structureManager,
+      @Nonnull ChunkGenerator generator,
+      @Nonnull RandomSource random,
+      @Nonnull BoundingBox chunkBox,
+      @Nonnull ChunkPos chunkPos,
+      @Nonnull BlockPos pivot) {
+    // Only the tree saved when the structure started will do: generating it again with a newer
+    // version of the mod could give a different tree, which wouldn't line up with the chunks
+    // already decorated
+    Optional<TreeTemplate> template =
+        TreeGenerationService.get()
+            .savedStructureTemplate(level.getLevel().getServer(), seed, parametersFingerprint);
+    if (template.isEmpty() || toCell > template.get().size() || fromCell > toCell) {
+      LOGGER.error("The tree for the redwood at {} is missing; skipping {}", origin, chunkPos);
+      return;
+    }
+
+    BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    template
+        .get()
+        .copyTo(
+            origin.getX(),
+            origin.getY(),
+            origin.getZ(),
+            fromCell,
+            toCell,
+            (section, positions, codes, count) -> {
+              for (int i = 0; i < count; i++) {
+                pos.set(positions[i]);
+                if (chunkBox.isInside(pos))
+                  level.setBlock(
+                      pos,
+                      TreeGenerationService.blockStateFor(TreeBlock.fromCode(codes[i])),
+                      Block.UPDATE_CLIENTS);
+              }
+            });
+  }
+}
@@ -0,0 +1,110 @@
+package com.brotherhoodgames.pixen.mod.world;
+
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerationParameters;
+import com.brotherhoodgames.pixen.mod.tree.TreeTemplate;
+import com.mojang.logging.LogUtils;
+import com.mojang.serialization.Codec;
+import java.io.IOException;
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.chunk.ChunkGenerator;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.levelgen.RandomState;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.levelgen.structure.Structure;
+import net.minecraft.world.level.levelgen.structure.StructureType;
+import net.minecraft.world.level.levelgen.structure.pieces.StructurePiecesBuilder;
+import net.minecraftforge.server.ServerLifecycleHooks;
+import org.slf4j.Logger;
+
+/**
+ * A giant redwood that grows as part of world generation.
+ *
+ * <p>The tree is generated once, when the structure's start is created, saved with the world, and
+ * split into one {@link GiantRedwoodPiece} per chunk it reaches. Each piece copies only its own
+ * chunk's share of the saved tree when that chunk is decorated, so chunks never wait on their
+ * neighbors, and every chunk gets its blocks from the same tree.
+ */
+public class GiantRedwoodStructure extends Structure {
+  private static final Logger LOGGER = LogUtils.getLogger();
+
+  public static final Codec<GiantRedwoodStructure> CODEC = simpleCodec(GiantRedwoodStructure::new);
+
+  public GiantRedwoodStructure(@Nonnull StructureSettings settings) {
+    super(settings);
+  }
+
+  @Override
+  public @Nonnull Optional<GenerationStub> findGenerationPoint(@Nonnull GenerationContext context) {
+    ChunkPos chunk = context.chunkPos();
+    int x = chunk.getMiddleBlockX(), z = chunk.getMiddleBlockZ();
+    ChunkGenerator generator = context.chunkGenerator();
+    LevelHeightAccessor heights = context.heightAccessor();
+    RandomState randomState = context.randomState();
+    int surface =
+        generator.getFirstOccupiedHeight(
+            x, z, Heightmap.Types.WORLD_SURFACE_WG, heights, randomState);
+    int floor =
+        generator.getFirstOccupiedHeight(
+            x, z, Heightmap.Types.OCEAN_FLOOR_WG, heights, randomState);
+    // Redwoods don't grow in water
+    if (surface != floor) return Optional.empty();
+
+    BlockPos origin = new BlockPos(x, surface, z);
+    long seed = context.random().nextLong();
+    return Optional.of(new GenerationStub(origin, pieces -> addPieces(pieces, origin, seed)));
+  }
+
+  private static void addPieces(
+      @Nonnull StructurePiecesBuilder pieces, @Nonnull BlockPos origin, long seed) {
+    GiantRedwoodGenerationParameters parameters =
+        GiantRedwoodGenerationParameters.DEFAULT_PARAMETERS;
+    TreeTemplate template;
+    try {
+      template =
+          TreeGenerationService.get()
+              .structureTemplate(ServerLifecycleHooks.getCurrentServer(), seed, parameters);
+    } catch (IOException e) {
+      // Without a saved tree, the pieces would have nothing to copy
+      LOGGER.error("Couldn't save the tree for the redwood at {}; skipping it", origin, e);
+      return;
+    }
+
+    // One piece per column, which for a tree rooted at a chunk's middle block is one per chunk
+    long fingerprint = parameters.fingerprint();
+    template.forEachColumn(
+        (columnX, columnZ, from, to, minY, maxY) -> {
+          int minX =
+              origin.getX()
+                  + SectionPos.sectionToBlockCoord(columnX)
+                  - SectionPos.SECTION_HALF_SIZE;
+          int minZ =
+              origin.getZ()
+                  + SectionPos.sectionToBlockCoord(columnZ)
+                  - SectionPos.SECTION_HALF_SIZE;
+          pieces.addPiece(
+              new GiantRedwoodPiece(
+                  seed,
+                  fingerprint,
+                  origin,
+                  from,
+                  to,
+                  new BoundingBox(
+                      minX,
+                      origin.getY() + minY,
+                      minZ,
+                      minX + SectionPos.SECTION_MAX_INDEX,
+                      origin.getY() + maxY,
+                      minZ + SectionPos.SECTION_MAX_INDEX)));
+        });
+  }
+
+  @Override
+  public @Nonnull StructureType<?> type() {
+    return ModStructures.GIANT_REDWOOD.get();
+  }
+}
@@ -0,0 +1,109 @@
+package com.brotherhoodgames.pixen.mod.world;
+
+import com.brotherhoodgames.pixen.mod.PixenMod;
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerationParameters;
+import com.mojang.brigadier.arguments.LongArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import java.util.List;
+import javax.annotation.Nonnull;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.coordinates.BlockPosArgument;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+/**
+ * Registers the mod's server commands:
+ *
+ * <ul>
+ *   <li>{@code /pixen redwood <pos> [seed]} grows a giant redwood at the given position.
+ *   <li>{@code /pixen placements} lists the generated trees still being placed in the world.
+ *   <li>{@code /pixen placements cancel} stops placing all of them.
+ * </ul>
+ */
+@Mod.EventBusSubscriber(modid = PixenMod.MOD_ID)
+public class ModCommands {
+  @SubscribeEvent
+  public static void onRegisterCommands(@Nonnull RegisterCommandsEvent e) {
+    e.getDispatcher()
+        .register(
+            Commands.literal(PixenMod.MOD_ID)
+                .requires(source -> source.hasPermission(Commands.LEVEL_GAMEMASTERS))
+                .then(
+                    Commands.literal("redwood")
+                        .then(
+                            Commands.argument("pos", BlockPosArgument.blockPos())
+                                .executes(
+                                    ctx ->
+                                        generateRedwood(
+                                            ctx, ctx.getSource().getLevel().getRandom().nextLong()))
+                                .then(
+                                    Commands.argument("seed", LongArgumentType.longArg())
+                                        .executes(
+                                            ctx ->
+                                                generateRedwood(
+                                                    ctx,
+                                                    LongArgumentType.getLong(ctx, "seed"))))))
+                .then(
+                    Commands.literal("placements")
+                        .executes(ModCommands::listPlacements)
+                        .then(
+                            Commands.literal("cancel").executes(ModCommands::cancelPlacements))));
+  }
+
+  private static int generateRedwood(@Nonnull CommandContext<CommandSourceStack> ctx, long seed)
+      throws CommandSyntaxException {
+    CommandSourceStack source = ctx.getSource();
+    BlockPos where = BlockPosArgument.getLoadedBlockPos(ctx, "pos");
+
+    source.sendSuccess(
+        Component.translatable(
+            "commands.pixen.redwood.started", where.getX(), where.getY(), where.getZ(), seed),
+        true);
+    TreeGenerationService.get()
+        .generateRedwood(
+            source.getLevel(), where, seed, GiantRedwoodGenerationParameters.DEFAULT_PARAMETERS)
+        .whenCompleteAsync(
+            (placed, error) -> {
+              if (error == null)
+                source.sendSuccess(
+                    Component.translatable("commands.pixen.redwood.success", placed), true);
+              else if (TreeGenerationService.isCancellation(error))
+                source.sendFailure(Component.translatable("commands.pixen.redwood.cancelled"));
+              else source.sendFailure(Component.translatable("commands.pixen.redwood.failed"));
+            },
+            source.getServer());
+    return 1;
+  }
+
+  private static int listPlacements(@Nonnull CommandContext<CommandSourceStack> ctx) {
+    List<BlockPlacementQueue.Placement> pending = BlockPlacementQueue.get().pending();
+    if (pending.isEmpty())
+      ctx.getSource().sendSuccess(Component.translatable("commands.pixen.placements.none"), false);
+    for (BlockPlacementQueue.Placement placement : pending)
+      ctx.getSource()
+          .sendSuccess(
+              Component.translatable(
+                  "commands.pixen.placements.entry",
+                  placement.placedBlocks(),
+                  placement.totalBlocks(),
+                  Math.round(placement.progress() * 100)),
+              false);
+    return pending.size();
+  }
+
+  private static int cancelPlacements(@Nonnull CommandContext<CommandSourceStack> ctx) {
+    List<BlockPlacementQueue.Placement> pending = BlockPlacementQueue.get().pending();
+    pending.forEach(BlockPlacementQueue.Placement::cancel);
+    ctx.getSource()
+        .sendSuccess(
+            Component.translatable("commands.pixen.placements.cancelled", pending.size()), true);
+    return pending.size();
+  }
+
+  private ModCommands() {}
+}
@@ -0,0 +1,33 @@
+package com.brotherhoodgames.pixen.mod.world;
+
+import com.brotherhoodgames.pixen.mod.PixenMod;
+import javax.annotation.Nonnull;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.world.level.levelgen.structure.StructureType;
+import net.minecraft.world.level.levelgen.structure.pieces.StructurePieceType;
+import net.minecraftforge.eventbus.api.IEventBus;
+import net.minecraftforge.registries.DeferredRegister;
+import net.minecraftforge.registries.RegistryObject;
+
+/**
+ * Registers the mod's world generation structures. Where and how often they spawn is configured by
+ * the data pack, under {@code data/pixen/worldgen}.
+ */
+public class ModStructures {
+  public static final DeferredRegister<StructureType<?>> STRUCTURE_TYPES =
+      DeferredRegister.create(Registries.STRUCTURE_TYPE, PixenMod.MOD_ID);
+  public static final DeferredRegister<StructurePieceType> STRUCTURE_PIECES =
+      DeferredRegister.create(Registries.STRUCTURE_PIECE, PixenMod.MOD_ID);
+
+  public static final RegistryObject<StructureType<GiantRedwoodStructure>> GIANT_REDWOOD =
+      STRUCTURE_TYPES.register("giant_redwood", () -> () -> GiantRedwoodStructure.CODEC);
+
+  public static final RegistryObject<StructurePieceType> GIANT_REDWOOD_PIECE =
+      STRUCTURE_PIECES.register(
+          "giant_redwood", () -> (StructurePieceType.ContextlessType) GiantRedwoodPiece::new);
+
+  public static void register(@Nonnull IEventBus eventBus) {
+    STRUCTURE_TYPES.register(eventBus);
+    STRUCTURE_PIECES.register(eventBus);
+  }
+}
@@ -0,0 +1,253 @@
+package com.brotherhoodgames.pixen.mod.world;
+
+import com.brotherhoodgames.pixen.mod.PixenConfig;
+import com.brotherhoodgames.pixen.mod.PixenMod;
+import com.brotherhoodgames.pixen.mod.tree.GeneratedBlocks;
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerationParameters;
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator;
+import com.brotherhoodgames.pixen.mod.tree.GiantRedwoodGenerator.TreeBlock;
+import com.brotherhoodgames.pixen.mod.tree.TreeTemplate;
+import com.brotherhoodgames.pixen.mod.tree.TreeTemplateCache;
+import com.brotherhoodgames.pixen.mod.tree.TreeTemplateLibrary;
+import com.google.common.collect.ImmutableMap;
+import com.mojang.logging.LogUtils;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nonnull;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.RandomSource;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.storage.LevelResource;
+import org.slf4j.Logger;
+
+/**
+ * Generates trees for a server without holding up its game thread.
+ *
+ * <p>A request takes a snapshot of everything the generator needs (the tree's position, a seed and
+ * the generation parameters) and computes the tree on a background worker, which never touches the
+ * level. Every tree generated is saved in a {@link TreeTemplateLibrary} in the world's folder, and
+ * recently used trees are also kept in a {@link TreeTemplateCache}, so growing the same tree again
+ * only costs a copy. Once the tree is complete, its blocks are handed back to the server, which
+ * places them on its own thread a few at a time.
+ */
+public final class TreeGenerationService {
+  private static final Logger LOGGER = LogUtils.getLogger();
+  private static final TreeGenerationService INSTANCE = new TreeGenerationService();
+
+  // Where each world's library of generated trees is kept, relative to the world's folder.
+  private static final String LIBRARY_DIRECTORY = PixenMod.MOD_ID + "/trees";
+
+  // Where the trees of each world's structures are kept. Chunks decorated long after their
+  // structure started still need its tree, so this library is never pruned.
+  private static final String STRUCTURE_LIBRARY_DIRECTORY = PixenMod.MOD_ID + "/structures";
+
+  private static final ImmutableMap<TreeBlock, BlockState> TREE_BLOCKS =
+      ImmutableMap.<TreeBlock, BlockState>builder()
+          .put(TreeBlock.WOOD, Blocks.STRIPPED_SPRUCE_WOOD.defaultBlockState())
+          .put(TreeBlock.BARK, Blocks.SPRUCE_WOOD.defaultBlockState())
+          .put(TreeBlock.LOG, Blocks.SPRUCE_WOOD.defaultBlockState())
+          .put(TreeBlock.LEAVES, Blocks.OAK_LEAVES.defaultBlockState())
+          .put(TreeBlock.DEBUG_LOG_SPLIT, Blocks.RED_WOOL.defaultBlockState())
+          .put(TreeBlock.DEBUG_LOG_TURN, Blocks.BLUE_WOOL.defaultBlockState())
+          .build();
+
+  // Trees are generated one at a time; each one already spreads its own work across the tree
+  // generation pool, so running several at once would only make them compete for it.
+  private final ExecutorService worker =
+      Executors.newSingleThreadExecutor(
+          r -> {
+            Thread thread = new Thread(r, "pixen-tree-generation-service");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final TreeTemplateCache templates = new TreeTemplateCache(0);
+  private final TreeTemplateCache structureTemplates = new TreeTemplateCache(0);
+
+  // The libraries already cleared, this session, of trees saved for outdated parameters
+  private final Set<Path> prunedLibraries = ConcurrentHashMap.newKeySet();
+
+  private TreeGenerationService() {}
+
+  public static @Nonnull TreeGenerationService get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts generating a giant redwood rooted at the given position. Returns immediately; the tree
+   * is computed in the background, then placed over as many ticks as the {@link
+   * BlockPlacementQueue} needs.
+   *
+   * @return a future that completes with the number of blocks placed once the whole tree is in
+   *     the level, exceptionally if the tree couldn't be generated, or is cancelled if its
+   *     placement is.
+   */
+  public @Nonnull CompletableFuture<Integer> generateRedwood(
+      @Nonnull ServerLevel level,
+      @Nonnull BlockPos origin,
+      long seed,
+      @Nonnull GiantRedwoodGenerationParameters parameters) {
+    final BlockPos where = origin.immutable();
+    final MinecraftServer server = level.getServer();
+
+    return CompletableFuture.supplyAsync(
+            () -> {
+              GeneratedBlocks blocks = new GeneratedBlocks();
+              template(server, seed, parameters)
+                  .copyTo(where.getX(), where.getY(), where.getZ(), blocks);
+              return blocks;
+            },
+            worker)
+        .thenComposeAsync(
+            blocks ->
+                BlockPlacementQueue.get()
+                    .enqueue(level, blocks, TreeGenerationService::blockStateFor)
+                    .completion(),
+            level.getServer())
+        .whenComplete(
+            (placed, e) -> {
+              if (e != null && !isCancellation(e))
+                LOGGER.error("Failed to generate a redwood at {}", where, e);
+            });
+  }
+
+  /**
+   * @return the tree generated from the given seed and parameters: from the cache if it's been
+   *     used recently, or else from the server's library, or else generated (and saved) now. This
+   *     can take as long as generating a tree, so it must not be called on the server thread.
+   */
+  public @Nonnull TreeTemplate template(
+      @Nonnull MinecraftServer server,
+      long seed,
+      @Nonnull GiantRedwoodGenerationParameters parameters) {
+    Path directory = server.getWorldPath(LevelResource.ROOT).resolve(LIBRARY_DIRECTORY);
+    TreeTemplateLibrary library = new TreeTemplateLibrary(directory);
+    if (prunedLibraries.add(directory)) prune(library);
+    long fingerprint = parameters.fingerprint();
+
+    templates.setMaxBytes(PixenConfig.TREE_TEMPLATE_CACHE_BYTES.get());
+    return templates.get(
+        seed, fingerprint, () -> loadOrGenerate(library, seed, fingerprint, parameters));
+  }
+
+  /**
+   * Generates the tree for a structure that's starting, and saves it, so that every chunk the
+   * structure reaches copies its blocks from the same tree. A seed only gives the same tree as long
+   * as the generator's code doesn't change, and chunks can be decorated after the mod is updated,
+   * so the saved tree, rather than the seed, is what the structure's pieces rely on; see {@link
+   * #savedStructureTemplate}. This can take as long as generating a tree.
+   *
+   * @return the tree saved for the given seed and parameters, generating it now if there isn't one.
+   * @throws IOException if the tree had to be generated, and couldn't be saved.
+   */
+  public @Nonnull TreeTemplate structureTemplate(
+      @Nonnull MinecraftServer server,
+      long seed,
+      @Nonnull GiantRedwoodGenerationParameters parameters)
+      throws IOException {
+    long fingerprint = parameters.fingerprint();
+    Optional<TreeTemplate> saved = savedStructureTemplate(server, seed, fingerprint);
+    if (saved.isPresent()) return saved.get();
+
+    TreeTemplate template =
+        new GiantRedwoodGenerator(parameters).generateTemplate(RandomSource.create(seed));
+    structureLibrary(server).save(seed, fingerprint, template);
+    structureTemplates.put(seed, fingerprint, template);
+    return template;
+  }
+
+  /**
+   * @return the tree saved by {@link #structureTemplate} for the given seed and parameters
+   *     fingerprint, or an empty optional if there's none or it can't be read. The tree is never
+   *     generated here.
+   */
+  public @Nonnull Optional<TreeTemplate> savedStructureTemplate(
+      @Nonnull MinecraftServer server, long seed, long parametersFingerprint) {
+    structureTemplates.setMaxBytes(PixenConfig.TREE_TEMPLATE_CACHE_BYTES.get());
+    TreeTemplate cached = structureTemplates.getIfPresent(seed, parametersFingerprint);
+    if (cached != null) return Optional.of(cached);
+
+    try {
+      Optional<TreeTemplate> saved = structureLibrary(server).load(seed, parametersFingerprint);
+      saved.ifPresent(template -> structureTemplates.put(seed, parametersFingerprint, template));
+      return saved;
+    } catch (IOException e) {
+      LOGGER.error("Couldn't load the saved structure tree for seed {}", seed, e);
+      return Optional.empty();
+    }
+  }
+
+  private static @Nonnull TreeTemplateLibrary structureLibrary(@Nonnull MinecraftServer server) {
+    return new TreeTemplateLibrary(
+        server.getWorldPath(LevelResource.ROOT).resolve(STRUCTURE_LIBRARY_DIRECTORY));
+  }
+
+  /**
+   * Deletes the trees in the library that weren't generated from the default parameters. Those
+   * trees can only have been saved by an older version of the mod, or by commands using other
+   * parameters, and would otherwise stay in the world's folder forever.
+   */
+  private static void prune(@Nonnull TreeTemplateLibrary library) {
+    try {
+      int deleted =
+          library.prune(GiantRedwoodGenerationParameters.DEFAULT_PARAMETERS.fingerprint());
+      if (deleted > 0) LOGGER.info("Deleted {} trees saved for outdated parameters", deleted);
+    } catch (IOException e) {
+      LOGGER.warn("Couldn't delete the trees saved for outdated parameters", e);
+    }
+  }
+
+  /**
+   * @return the tree saved in the library for the given seed and parameters, generating and saving
+   *     it if there isn't one.
+   */
+  private static @Nonnull TreeTemplate loadOrGenerate(
+      @Nonnull TreeTemplateLibrary library,
+      long seed,
+      long parametersFingerprint,
+      @Nonnull GiantRedwoodGenerationParameters parameters) {
+    try {
+      Optional<TreeTemplate> saved = library.load(seed, parametersFingerprint);
+      if (saved.isPresent()) return saved.get();
+    } catch (IOException e) {
+      LOGGER.warn("Couldn't load the saved tree for seed {}; generating it again", seed, e);
+    }
+
+    TreeTemplate template =
+        new GiantRedwoodGenerator(parameters).generateTemplate(RandomSource.create(seed));
+    try {
+      library.save(seed, parametersFingerprint, template);
+    } catch (IOException e) {
+      LOGGER.warn("Couldn't save the tree for seed {}", seed, e);
+    }
+    return template;
+  }
+
+  /**
+   * @return {@code true} if the given exception, as passed to a {@link CompletableFuture}'s
+   *     completion handler, means that the future (or one it depended on) was cancelled.
+   */
+  public static boolean isCancellation(@Nonnull Throwable e) {
+    return e instanceof CancellationException
+        || (e instanceof CompletionException && e.getCause() instanceof CancellationException);
+  }
+
+  /**
+   * @return the block state that the given generated block is placed in the world as.
+   */
+  /*package*/ static @Nonnull BlockState blockStateFor(@Nonnull TreeBlock treeBlock) {
+    return Optional.ofNullable(TREE_BLOCKS.get(treeBlock.actual()))
+        .orElse(Blocks.SPRUCE_WOOD.defaultBlockState());
+  }
+}
@@ -0,0 +1,48 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Test;
+
+class CanopyTest {
+  private static LeafNode cluster(int x, int y, int z, double radius) {
+    return LeafNode.builder()
+        .nodeLocation(new BlockPos(x, y, z))
+        .radius(radius)
+        .currentEnvelopeRadius(2)
+        .dropoffRate(0)
+        .build();
+  }
+
+  @Test
+  void testPartitionGroupsClustersThatShareCells() {
+    LeafNode high = cluster(0, 90, 0, 4);
+    LeafNode low = cluster(0, 40, 0, 4);
+    // Chained: each overlaps the next, but the first and last are far apart
+    LeafNode first = cluster(20, 60, 0, 3);
+    LeafNode second = cluster(26, 60, 0, 3);
+    LeafNode third = cluster(32, 61, 0, 3);
+
+    Canopy subject = new Canopy();
+    for (LeafNode node : List.of(third, high, first, low, second)) subject.add(node);
+
+    assertEquals(
+        List.of(List.of(low), List.of(first, second, third), List.of(high)),
+        subject.partition());
+  }
+
+  @Test
+  void testPartitionSeparatesClustersOutOfReach() {
+    // Each reaches [-r - 1, r] around its node, so these two only just miss each other
+    LeafNode left = cluster(0, 50, 0, 3);
+    LeafNode right = cluster(8, 50, 0, 3);
+
+    Canopy subject = new Canopy();
+    subject.add(right);
+    subject.add(left);
+
+    assertEquals(List.of(List.of(left), List.of(right)), subject.partition());
+  }
+}
@@ -0,0 +1,119 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Test;
+
+class GenerationSchedulerTest {
+  private static final GiantRedwoodGenerationParameters PARAMETERS =
+      GiantRedwoodGenerationParameters.DEFAULT_PARAMETERS;
+
+  @Test
+  void testWritesLandOnceEveryGeneratorHasFinished() {
+    List<String> seen = new ArrayList<>();
+    IterativeGenerator left = new Neighbor(0, 1, seen), right = new Neighbor(1, 0, seen);
+    TreeSpace tree = new TreeSpace(5);
+
+    new GenerationScheduler(1).run(List.of(left, right), PARAMETERS, tree, 2);
+
+    assertEquals(List.of("0:false", "1:false", "0:false", "1:false"), seen);
+    assertEquals(GiantRedwoodGenerator.TreeBlock.LOG, tree.get(0, 0, 0));
+    assertEquals(GiantRedwoodGenerator.TreeBlock.LOG, tree.get(1, 0, 0));
+  }
+
+  @Test
+  void testResultDoesNotDependOnParallelism() {
+    List<String> expected = grow(new GenerationScheduler(1));
+    GenerationScheduler parallel = new GenerationScheduler(4);
+    for (int i = 0; i < 5; i++) assertEquals(expected, grow(parallel));
+  }
+
+  private static List<String> grow(GenerationScheduler scheduler) {
+    // A few pillars for the walkers to notice and step around
+    TreeSpace tree = new TreeSpace(5);
+    for (int y = 0; y < 40; y++)
+      for (int i = 0; i < 5; i++)
+        tree.set(i * 4 - 8, y, 8 - i * 3, GiantRedwoodGenerator.TreeBlock.WOOD);
+
+    scheduler.run(
+        IntStream.range(0, 16)
+            .<IterativeGenerator>mapToObj(i -> new Walker(i % 4 * 3 - 6, 0, i / 4 * 3 - 6, i))
+            .toList(),
+        PARAMETERS,
+        tree,
+        60);
+
+    List<String> blocks = new ArrayList<>();
+    tree.forEachFilledCell(
+        cell ->
+            blocks.add(
+                cell.get() + "@" + cell.getTreeX() + "," + cell.getY() + "," + cell.getTreeZ()));
+    return blocks;
+  }
+
+  /** Fills its own cell each step, and records whether its neighbor's cell was filled. */
+  private static final class Neighbor implements IterativeGenerator {
+    private final int x;
+    private final int neighborX;
+    private final List<String> seen;
+
+    Neighbor(int x, int neighborX, List<String> seen) {
+      this.x = x;
+      this.neighborX = neighborX;
+      this.seen = seen;
+    }
+
+    @Override
+    public Stream<IterativeGenerator> iterate(
+        GiantRedwoodGenerationParameters parameters, TreeSpace tree, TreeWrites writes) {
+      seen.add(x + ":" + tree.cell(neighborX, 0, 0).isFilled());
+      writes.set(new BlockPos(x, 0, 0), GiantRedwoodGenerator.TreeBlock.LOG);
+      return Stream.of(this);
+    }
+  }
+
+  /**
+   * Climbs, stepping away from crowded cells, and splits when it finds itself alone. Walkers cross
+   * each other's paths, and odd and even walkers leave different blocks, so the tree they leave
+   * depends on the order their writes land in.
+   */
+  private static final class Walker implements IterativeGenerator {
+    private int x;
+    private int y;
+    private int z;
+    private final int id;
+
+    Walker(int x, int y, int z, int id) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.id = id;
+    }
+
+    @Override
+    public Stream<IterativeGenerator> iterate(
+        GiantRedwoodGenerationParameters parameters, TreeSpace tree, TreeWrites writes) {
+      int crowding = 0;
+      for (int dx = -1; dx <= 1; dx++)
+        for (int dz = -1; dz <= 1; dz++) if (tree.cell(x + dx, y, z + dz).isFilled()) crowding++;
+
+      writes.set(
+          new BlockPos(x, y, z),
+          id % 2 == 0 ? GiantRedwoodGenerator.TreeBlock.LOG : GiantRedwoodGenerator.TreeBlock.BARK);
+
+      int turn = (crowding + id + y) % 4;
+      x += turn == 0 ? 1 : turn == 1 ? -1 : 0;
+      z += turn == 2 ? 1 : turn == 3 ? -1 : 0;
+      y++;
+      if (!tree.areValidTreeCoordinates(x, y, z)) return Stream.empty();
+      return crowding == 0 && y % 5 == 0
+          ? Stream.of(this, new Walker(x - 1, y, z + 1, id + 16))
+          : Stream.of(this);
+    }
+  }
+}
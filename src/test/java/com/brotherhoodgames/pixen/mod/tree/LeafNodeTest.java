@@ -0,0 +1,30 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LeafNodeTest {
+  @Test
+  void testShellOffsetsCoverCubeSurfaceInStorageOrder() {
+    for (int r = 1; r <= 12; r++) {
+      List<List<Integer>> expected = new ArrayList<>();
+      for (int dy = -r; dy < r; dy++)
+        for (int dx = -r; dx < r; dx++)
+          for (int dz = -r; dz < r; dz++)
+            if (dx == -r || dx == r - 1 || dy == -r || dy == r - 1 || dz == -r || dz == r - 1)
+              expected.add(List.of(dx, dy, dz, dx * dx + dy * dy + dz * dz));
+
+      int[] shell = LeafNode.shellOffsets(r);
+      List<List<Integer>> actual = new ArrayList<>();
+      for (int i = 0; i < shell.length; i += LeafNode.SHELL_STRIDE)
+        actual.add(List.of(shell[i], shell[i + 1], shell[i + 2], shell[i + 3]));
+
+      assertEquals(expected, actual, "radius " + r);
+      assertSame(shell, LeafNode.shellOffsets(r));
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import org.junit.jupiter.api.Test;
+
+class SectionBatcherTest {
+  @Test
+  void testBatchesHoldWholeSectionsFromTheGroundUp() {
+    List<Long> sections = new ArrayList<>();
+    Set<Long> positions = new HashSet<>();
+    SectionBatcher subject =
+        new SectionBatcher(
+            (section, batchPositions, codes, count) -> {
+              sections.add(section);
+              for (int i = 0; i < count; i++) {
+                long p = batchPositions[i];
+                assertEquals(section, SectionPos.of(BlockPos.of(p)).asLong());
+                assertEquals(GiantRedwoodGenerator.TreeBlock.WOOD.code(), codes[i]);
+                assertTrue(positions.add(p));
+              }
+            });
+
+    int added = 0;
+    for (int y = -20; y < 40; y++)
+      for (int x = -20; x < 20; x += 3)
+        for (int z = -20; z < 20; z += 2, added++)
+          subject.add(GiantRedwoodGenerator.TreeBlock.WOOD.code(), x, y, z);
+    subject.flush();
+
+    assertEquals(added, positions.size());
+    assertEquals(sections.size(), new HashSet<>(sections).size());
+    for (int i = 1; i < sections.size(); i++)
+      assertTrue(SectionPos.y(sections.get(i - 1)) <= SectionPos.y(sections.get(i)));
+  }
+}
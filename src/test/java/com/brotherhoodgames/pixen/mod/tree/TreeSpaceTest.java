@@ -0,0 +1,129 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Test;
+
+class TreeSpaceTest {
+  private static final double TRUNK_RADIUS = 5;
+
+  @Test
+  void testOccupancyMatchesCells() {
+    for (TreeSpace.Backend backend : TreeSpace.Backend.values()) {
+      TreeSpace subject = new TreeSpace(TRUNK_RADIUS, backend);
+      GiantRedwoodGenerator.TreeBlock[] blocks = GiantRedwoodGenerator.TreeBlock.values();
+      int radius = subject.maxTreeRadius;
+
+      Random r = new Random(7);
+      for (int i = 0; i < 50_000; i++) {
+        int x = r.nextInt(radius * 2 + 1) - radius, z = r.nextInt(radius * 2 + 1) - radius;
+        int y = r.nextInt(40);
+        int pick = r.nextInt(blocks.length + 1);
+        GiantRedwoodGenerator.TreeBlock block = pick == blocks.length ? null : blocks[pick];
+        if (r.nextBoolean()) subject.set(x, y, z, block);
+        else subject.setIfEmpty(x, y, z, block);
+      }
+
+      List<TreeSpace.Cell> expected = new ArrayList<>();
+      subject.streamCells().filter(TreeSpace.Cell::isFilled).forEach(expected::add);
+      List<TreeSpace.Cell> actual = new ArrayList<>();
+      subject.forEachFilledCell(cursor -> actual.add(cursor.toCell()));
+      assertEquals(expected, actual, backend.name());
+      assertEquals(expected.size(), subject.countFilledBlocks(), backend.name());
+
+      TreeSpace.Region region = subject.occupiedRegion().orElseThrow();
+      assertTrue(
+          expected.stream().allMatch(c -> region.contains(c.getTreeX(), c.getY(), c.getTreeZ())),
+          backend.name());
+
+      for (GiantRedwoodGenerator.TreeBlock block : blocks)
+        assertEquals(
+            subject.streamCells().filter(cell -> cell.get() == block).count(),
+            subject.countBlocks(block),
+            backend + " " + block);
+    }
+  }
+
+  @Test
+  void testOccupiedRegion() {
+    TreeSpace subject = new TreeSpace(TRUNK_RADIUS);
+    assertTrue(subject.occupiedRegion().isEmpty());
+
+    subject.set(-3, 4, 2, GiantRedwoodGenerator.TreeBlock.LOG);
+    subject.set(5, 9, -1, GiantRedwoodGenerator.TreeBlock.LEAVES);
+    subject.set(20, 20, 20, GiantRedwoodGenerator.TreeBlock.DEAD_LEAF_SPACE);
+    assertEquals(new TreeSpace.Region(-3, 4, -1, 5, 9, 2), subject.occupiedRegion().orElseThrow());
+    assertEquals(new TreeSpace.Region(-3, 4, 2, -3, 4, 2), subject.occupiedRegion(4).orElseThrow());
+    assertTrue(subject.occupiedRegion(5).isEmpty());
+  }
+
+  @Test
+  void testFilledClustersSummarizeFilledCells() {
+    for (TreeSpace.Backend backend : TreeSpace.Backend.values()) {
+      TreeSpace subject = new TreeSpace(TRUNK_RADIUS, backend);
+      subject.set(1, 10, 1, GiantRedwoodGenerator.TreeBlock.LOG);
+      subject.set(2, 11, 1, GiantRedwoodGenerator.TreeBlock.LOG);
+      subject.set(3, 12, 1, GiantRedwoodGenerator.TreeBlock.LOG);
+      subject.set(3, 12, 1, GiantRedwoodGenerator.TreeBlock.AIR);
+      subject.set(2, 11, 2, GiantRedwoodGenerator.TreeBlock.DEAD_LEAF_SPACE);
+      subject.set(-25, 10, -25, GiantRedwoodGenerator.TreeBlock.LEAVES);
+
+      long count = 0;
+      double[] sum = new double[3];
+      TreeSpace.ClusterCursor clusters = subject.clusterCursor().moveTo(new BlockPos(2, 11, 2), 4);
+      while (clusters.next()) {
+        count += clusters.getCount();
+        sum[0] += clusters.getCount() * clusters.getCentroidX();
+        sum[1] += clusters.getCount() * clusters.getCentroidY();
+        sum[2] += clusters.getCount() * clusters.getCentroidZ();
+      }
+      assertEquals(2, count, backend.name());
+      assertEquals(2.0, sum[0] / count, 1e-9);
+      assertEquals(11.0, sum[1] / count, 1e-9);
+      assertEquals(1.5, sum[2] / count, 1e-9);
+    }
+  }
+
+  @Test
+  void testGrowthCandidatesMatchCursorQueries() {
+    for (TreeSpace.Backend backend : TreeSpace.Backend.values()) {
+      TreeSpace subject = new TreeSpace(TRUNK_RADIUS, backend);
+      GiantRedwoodGenerator.TreeBlock[] blocks = GiantRedwoodGenerator.TreeBlock.values();
+      GiantRedwoodGenerator.TreeBlock excluded = GiantRedwoodGenerator.TreeBlock.DEAD_LEAF_SPACE;
+      int radius = subject.maxTreeRadius;
+
+      Random r = new Random(11);
+      for (int i = 0; i < 5_000; i++)
+        subject.set(
+            r.nextInt(radius * 2 + 1) - radius,
+            r.nextInt(12),
+            r.nextInt(radius * 2 + 1) - radius,
+            blocks[r.nextInt(blocks.length)]);
+
+      TreeSpace.Cursor cursor = subject.cursor();
+      for (int y = -1; y <= 13; y++)
+        for (int x = -radius - 1; x <= radius + 1; x++)
+          for (int z = -radius - 1; z <= radius + 1; z++) {
+            cursor.moveTo(x, y, z);
+            boolean expected =
+                cursor.isValid()
+                    && cursor.isEmpty()
+                    && cursor.isTouchingFilled()
+                    && cursor.isSurroundedBy(b -> b != excluded);
+            assertEquals(
+                expected,
+                subject.isGrowthCandidateFromSliceCoords(
+                    subject.treeCoordinateToUnsafeSliceIndex(x),
+                    y,
+                    subject.treeCoordinateToUnsafeSliceIndex(z),
+                    excluded.code()),
+                backend + " " + x + "," + y + "," + z);
+          }
+    }
+  }
+}
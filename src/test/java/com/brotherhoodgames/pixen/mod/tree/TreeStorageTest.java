@@ -0,0 +1,62 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TreeStorageTest {
+  private static final int SLICE_SIZE = 41;
+  private static final int HEIGHT = 60;
+
+  @Test
+  void testBrickedStorageMatchesFlatStorage() {
+    TreeStorage flat = new FlatTreeStorage(SLICE_SIZE, HEIGHT);
+    TreeStorage bricked = new BrickedTreeStorage(SLICE_SIZE, HEIGHT);
+    flat.allocateThrough(HEIGHT - 1);
+    bricked.allocateThrough(HEIGHT - 1);
+
+    Random r = new Random(42);
+    int blockCount = GiantRedwoodGenerator.TreeBlock.values().length + 1;
+    for (int i = 0; i < 200_000; i++) {
+      int x = r.nextInt(SLICE_SIZE), y = r.nextInt(HEIGHT), z = r.nextInt(SLICE_SIZE);
+      byte code = (byte) r.nextInt(blockCount);
+      assertEquals(flat.set(x, y, z, code), bricked.set(x, y, z, code));
+    }
+
+    for (int x = 0; x < SLICE_SIZE; x++)
+      for (int y = 0; y < HEIGHT; y++)
+        for (int z = 0; z < SLICE_SIZE; z++)
+          assertEquals(flat.get(x, y, z), bricked.get(x, y, z), x + ", " + y + ", " + z);
+  }
+
+  @Test
+  void testBrickedStorageAllocatesOnDemand() {
+    TreeStorage subject = new BrickedTreeStorage(SLICE_SIZE, HEIGHT);
+    assertEquals(0, subject.maxAllocatedSliceXIndex() - subject.minAllocatedSliceXIndex());
+
+    subject.allocateThrough(20);
+    subject.set(20, 20, 35, GiantRedwoodGenerator.TreeBlock.LOG.code());
+    assertEquals(16, subject.minAllocatedSliceXIndex());
+    assertEquals(32, subject.maxAllocatedSliceXIndex());
+    assertEquals(32, subject.minAllocatedSliceZIndex());
+    assertEquals(SLICE_SIZE, subject.maxAllocatedSliceZIndex());
+    assertEquals(GiantRedwoodGenerator.TreeBlock.LOG.code(), subject.get(20, 20, 35));
+    assertEquals(0, subject.get(20, 20, 34));
+  }
+
+  @Test
+  void testAllocateThrough() {
+    TreeStorage subject = new FlatTreeStorage(SLICE_SIZE, HEIGHT);
+    assertEquals(0, subject.height());
+    assertTrue(subject.allocateThrough(0));
+    assertEquals(1, subject.height());
+    assertTrue(subject.allocateThrough(10));
+    assertEquals(11, subject.height());
+    assertTrue(subject.allocateThrough(5));
+    assertEquals(11, subject.height());
+    assertFalse(subject.allocateThrough(HEIGHT));
+  }
+}
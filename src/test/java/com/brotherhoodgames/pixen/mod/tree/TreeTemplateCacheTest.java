@@ -0,0 +1,63 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static com.brotherhoodgames.pixen.mod.util.stats.RandomVariables.constant;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TreeTemplateCacheTest {
+  private static final TreeTemplate TEMPLATE = new TreeTemplate(new int[100], new byte[100]);
+
+  @Test
+  void testEvictsLeastRecentlyUsedTemplates() {
+    TreeTemplateCache subject = new TreeTemplateCache(TEMPLATE.estimatedBytes() * 2);
+    List<Long> generated = new ArrayList<>();
+
+    get(subject, 1, generated);
+    get(subject, 2, generated);
+    get(subject, 1, generated);
+    get(subject, 3, generated); // evicts 2, the least recently used
+    get(subject, 1, generated);
+    get(subject, 2, generated);
+
+    assertEquals(List.of(1L, 2L, 3L, 2L), generated);
+    assertEquals(2, subject.size());
+    assertEquals(TEMPLATE.estimatedBytes() * 2, subject.estimatedBytes());
+
+    subject.setMaxBytes(0);
+    assertEquals(0, subject.size());
+    assertEquals(0, subject.estimatedBytes());
+  }
+
+  @Test
+  void testReturnsCachedTemplate() {
+    TreeTemplateCache subject = new TreeTemplateCache(Long.MAX_VALUE);
+    TreeTemplateCache.Key key = new TreeTemplateCache.Key(7, 11);
+    assertSame(TEMPLATE, subject.get(key, () -> TEMPLATE));
+    assertSame(TEMPLATE, subject.get(key, () -> new TreeTemplate(new int[1], new byte[1])));
+  }
+
+  @Test
+  void testFingerprintIsStable() {
+    GiantRedwoodGenerationParameters parameters =
+        GiantRedwoodGenerationParameters.DEFAULT_PARAMETERS;
+    assertEquals(parameters.fingerprint(), parameters.fingerprint());
+    assertEquals(parameters.fingerprint(), parameters.compiled().fingerprint());
+    assertNotEquals(
+        parameters.fingerprint(),
+        parameters.toBuilder().trunkDiameter(constant(1)).build().fingerprint());
+  }
+
+  private static void get(TreeTemplateCache cache, long seed, List<Long> generated) {
+    cache.get(
+        new TreeTemplateCache.Key(seed, 0),
+        () -> {
+          generated.add(seed);
+          return TEMPLATE;
+        });
+  }
+}
@@ -0,0 +1,173 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TreeTemplateLibraryTest {
+  @TempDir Path directory;
+
+  @Test
+  void testSavedTemplateLoadsUnchanged() throws IOException {
+    Random r = new Random(13);
+    int size = 1001;
+    int[] cells = new int[size];
+    byte[] codes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      cells[i] = TreeTemplate.pack(r.nextInt(101) - 50, i / 10, r.nextInt(101) - 50);
+      codes[i] = GiantRedwoodGenerator.TreeBlock.values()[r.nextInt(5) + 2].code();
+    }
+    TreeTemplate template = new TreeTemplate(cells, codes);
+    TreeTemplateLibrary subject = new TreeTemplateLibrary(directory.resolve("trees"));
+
+    assertTrue(subject.load(1, 2).isEmpty());
+    subject.save(1, 2, template);
+    TreeTemplate loaded = subject.load(1, 2).orElseThrow();
+
+    assertEquals(template.size(), loaded.size());
+    assertEquals(template.bounds(), loaded.bounds());
+    assertEquals(blocksOf(template), blocksOf(loaded));
+    assertTrue(subject.load(1, 3).isEmpty());
+  }
+
+  @Test
+  void testTruncatedTemplateIsRejected() throws IOException {
+    TreeTemplateLibrary subject = new TreeTemplateLibrary(directory);
+    subject.save(1, 2, new TreeTemplate(new int[] {TreeTemplate.pack(0, 0, 0)}, new byte[] {1}));
+
+    try (Stream<Path> files = Files.list(directory)) {
+      Path file = files.findFirst().orElseThrow();
+      byte[] contents = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(contents, contents.length - 1));
+    }
+    assertThrows(IOException.class, () -> subject.load(1, 2));
+  }
+
+  @Test
+  void testCellsWithUnknownPaletteIndicesAreSkipped() throws IOException {
+    TreeTemplateLibrary subject = new TreeTemplateLibrary(directory);
+    byte wood = GiantRedwoodGenerator.TreeBlock.WOOD.code();
+    subject.save(
+        1,
+        2,
+        new TreeTemplate(
+            new int[] {
+              TreeTemplate.pack(0, 0, 0), TreeTemplate.pack(0, 1, 0), TreeTemplate.pack(0, 2, 0)
+            },
+            new byte[] {wood, wood, wood}));
+
+    try (Stream<Path> files = Files.list(directory)) {
+      Path file = files.findFirst().orElseThrow();
+      byte[] contents = Files.readAllBytes(file);
+      // Point the first cell at index 0 and the last past the end of the palette
+      contents[contents.length - 3] = 0;
+      contents[contents.length - 1] = (byte) 0xFF;
+      Files.write(file, contents);
+    }
+    assertEquals(
+        List.of(GiantRedwoodGenerator.TreeBlock.WOOD + "@100,65,-100"),
+        blocksOf(subject.load(1, 2).orElseThrow()));
+  }
+
+  @Test
+  void testCellsOfUnknownBlocksAreSkipped() throws IOException {
+    TreeTemplateLibrary subject = new TreeTemplateLibrary(directory);
+    byte wood = GiantRedwoodGenerator.TreeBlock.WOOD.code();
+    byte log = GiantRedwoodGenerator.TreeBlock.LOG.code();
+    subject.save(
+        1,
+        2,
+        new TreeTemplate(
+            new int[] {TreeTemplate.pack(0, 0, 0), TreeTemplate.pack(0, 1, 0)},
+            new byte[] {wood, log}));
+
+    try (Stream<Path> files = Files.list(directory)) {
+      Path file = files.findFirst().orElseThrow();
+      byte[] contents = Files.readAllBytes(file);
+      // Rename the palette's WOOD entry to a block that doesn't exist
+      byte[] name = {4, 0, 'W', 'O', 'O', 'D'};
+      for (int i = 0; i + name.length <= contents.length; i++)
+        if (Arrays.equals(contents, i, i + name.length, name, 0, name.length))
+          contents[i + name.length - 1] = 'X';
+      Files.write(file, contents);
+    }
+    assertEquals(
+        List.of(GiantRedwoodGenerator.TreeBlock.LOG + "@100,65,-100"),
+        blocksOf(subject.load(1, 2).orElseThrow()));
+  }
+
+  @Test
+  void testPruneKeepsOnlyCurrentParameters() throws IOException {
+    TreeTemplateLibrary subject = new TreeTemplateLibrary(directory);
+    TreeTemplate template =
+        new TreeTemplate(new int[] {TreeTemplate.pack(0, 0, 0)}, new byte[] {1});
+    subject.save(1, 2, template);
+    subject.save(3, 2, template);
+    subject.save(1, 4, template);
+
+    assertEquals(1, subject.prune(2));
+    assertTrue(subject.load(1, 2).isPresent());
+    assertTrue(subject.load(3, 2).isPresent());
+    assertTrue(subject.load(1, 4).isEmpty());
+  }
+
+  @Test
+  void testEachColumnHoldsOneChunk() throws IOException {
+    Random r = new Random(17);
+    int size = 2000;
+    int[] cells = new int[size];
+    byte[] codes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      cells[i] = TreeTemplate.pack(r.nextInt(81) - 40, r.nextInt(100), r.nextInt(81) - 40);
+      codes[i] = GiantRedwoodGenerator.TreeBlock.WOOD.code();
+    }
+    TreeTemplateLibrary subject = new TreeTemplateLibrary(directory);
+    subject.save(1, 2, new TreeTemplate(cells, codes));
+    TreeTemplate loaded = subject.load(1, 2).orElseThrow();
+
+    // Rooted at the middle block of chunk (6, -7), each column lands in a single chunk
+    List<String> blocks = new ArrayList<>();
+    loaded.forEachColumn(
+        (columnX, columnZ, from, to, minY, maxY) ->
+            loaded.copyTo(
+                104,
+                64,
+                -104,
+                from,
+                to,
+                (GiantRedwoodGenerator.GenerationCollaborator)
+                    (block, x, y, z) -> {
+                      assertEquals(6 + columnX, x >> 4);
+                      assertEquals(-7 + columnZ, z >> 4);
+                      assertTrue(y >= 64 + minY && y <= 64 + maxY);
+                      blocks.add(block + "@" + x + "," + y + "," + z);
+                    }));
+
+    List<String> all = blocksOf(loaded);
+    assertEquals(size, blocks.size());
+    assertEquals(new HashSet<>(all), new HashSet<>(blocks));
+  }
+
+  private static List<String> blocksOf(TreeTemplate template) {
+    List<String> blocks = new ArrayList<>();
+    template.copyTo(
+        100,
+        64,
+        -100,
+        (GiantRedwoodGenerator.GenerationCollaborator)
+            (block, x, y, z) -> blocks.add(block + "@" + x + "," + y + "," + z));
+    return blocks;
+  }
+}
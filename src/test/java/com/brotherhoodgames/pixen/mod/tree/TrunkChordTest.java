@@ -0,0 +1,69 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TrunkChordTest {
+  private static final double EPSILON = 1e-12;
+
+  @Test
+  void testDistanceMatchesAngleDistance() {
+    Random r = new Random(11);
+    for (int c = 0; c < 50; c++) {
+      TrunkChord chord =
+          TrunkChord.builder()
+              .x(r.nextGaussian())
+              .z(r.nextGaussian())
+              .size(r.nextDouble() * 2, r.nextDouble())
+              .a(r.nextDouble() * 10 - 5)
+              .unmoving()
+              .build();
+      for (int i = 0; i < 257; i++) {
+        double tx = r.nextDouble() * 6 - 3, tz = r.nextDouble() * 6 - 3;
+        assertEquals(referenceDistance(chord, tx, tz), chord.distance(tx, tz), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  void testMarkRowMatchesDistance() {
+    Random r = new Random(7);
+    for (int c = 0; c < 50; c++) {
+      double x = r.nextGaussian(), z = r.nextGaussian(), a = r.nextDouble() * 10 - 5;
+      TrunkChord chord =
+          TrunkChord.builder().x(x).z(z).size(1 + r.nextDouble(), r.nextDouble()).a(a).build();
+      double[] shape = new double[TrunkChord.SHAPE_SIZE];
+      chord.writeShape(shape, 0);
+      double tx = r.nextDouble() * 6 - 3, scale = 1 + r.nextDouble() * 10;
+
+      boolean[] inside = new boolean[64];
+      inside[0] = inside[63] = true;
+      TrunkChord.markRow(
+          x, z, shape[2], shape[3], Math.cos(a), Math.sin(a), tx, -32, scale, inside, 1, 63);
+      for (int i = 1; i < 63; i++)
+        assertEquals(chord.distance(tx, (i - 32) / scale) <= 0, inside[i]);
+      assertEquals(true, inside[0] && inside[63]);
+    }
+  }
+
+  @Test
+  void testCenterIsInside() {
+    TrunkChord chord = TrunkChord.builder().x(1).z(-2).size(0.5, 0.3).a(1).unmoving().build();
+    assertEquals(0, chord.distance(1, -2));
+  }
+
+  /** The distance measured with the angle to the point, as chords originally calculated it. */
+  private static double referenceDistance(TrunkChord chord, double tx, double tz) {
+    double[] shape = new double[TrunkChord.SHAPE_SIZE];
+    chord.writeShape(shape, 0);
+    double dx = tx - shape[0];
+    double dz = tz - shape[1];
+    double theta = Math.atan2(dz, dx) - shape[4];
+    double rxSinTheta = shape[2] * Math.sin(theta);
+    double rzCosTheta = shape[3] * Math.cos(theta);
+    double rTheta = Math.sqrt(rxSinTheta * rxSinTheta + rzCosTheta * rzCosTheta);
+    return Math.max(0, Math.sqrt(dx * dx + dz * dz) - rTheta);
+  }
+}
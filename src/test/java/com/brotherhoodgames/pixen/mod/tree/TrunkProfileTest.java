@@ -0,0 +1,49 @@
+package com.brotherhoodgames.pixen.mod.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class TrunkProfileTest {
+  @Test
+  void testRasterizeMatchesDistanceFunction() {
+    Random r = new Random(3);
+    for (int t = 0; t < 500; t++) {
+      List<TrunkChord> chords = new ArrayList<>();
+      int chordCount = 1 + r.nextInt(5);
+      for (int c = 0; c < chordCount; c++)
+        chords.add(
+            TrunkChord.builder()
+                .x(c == 0 ? 0 : r.nextGaussian() * 0.5)
+                .z(c == 0 ? 0 : r.nextGaussian() * 0.5)
+                .size(r.nextDouble() * 1.2, r.nextDouble())
+                .a(r.nextDouble() * 20 - 10)
+                .unmoving()
+                .build());
+      double trunkRadius = 0.6 + r.nextDouble() * 15;
+      double capRadius = trunkRadius * (1 + r.nextDouble()) * 1.8;
+
+      TrunkProfile subject = new TrunkProfile(chordCount, 1);
+      subject.add(trunkRadius, chords);
+      Set<List<Integer>> actual = new HashSet<>();
+      subject.rasterize(0, capRadius, (x, z) -> actual.add(List.of(x, z)));
+
+      TrunkChord cap = TrunkChord.builder().atOrigin().size(capRadius, 0).unmoving().build();
+      Set<List<Integer>> expected = new HashSet<>();
+      int extent = (int) Math.ceil(capRadius);
+      for (int x = -extent; x <= extent; x++)
+        for (int z = -extent; z <= extent; z++) {
+          final double tx = x / trunkRadius, tz = z / trunkRadius;
+          if (cap.distance(x, z) <= 0 && chords.stream().anyMatch(c -> c.distance(tx, tz) <= 0))
+            expected.add(List.of(x, z));
+        }
+
+      assertEquals(expected, actual);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.brotherhoodgames.pixen.mod.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RandomnessTest {
+  @Test
+  void testPositionalDoubleIsStableAndUniform() {
+    double value = Randomness.positionalDouble(42, 3, -7, 11, 1);
+    assertEquals(value, Randomness.positionalDouble(42, 3, -7, 11, 1));
+    assertNotEquals(value, Randomness.positionalDouble(42, 3, -7, 11, 2));
+    assertNotEquals(value, Randomness.positionalDouble(43, 3, -7, 11, 1));
+
+    int[] buckets = new int[10];
+    int n = 0;
+    for (int x = -20; x < 20; x++)
+      for (int y = 0; y < 50; y++)
+        for (int z = -20; z < 20; z++, n++) {
+          double v = Randomness.positionalDouble(7, x, y, z, 0);
+          assertTrue(v >= 0 && v < 1);
+          buckets[(int) (v * buckets.length)]++;
+        }
+    for (int count : buckets) assertEquals(n / (double) buckets.length, count, n * 0.01);
+  }
+}
@@ -6,6 +6,7 @@ import static com.brotherhoodgames.pixen.mod.util.stats.Pdf.rangeFrom;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
@@ -87,4 +88,34 @@ class ManualPdfTest {
         subject.pdfToFunction(domainFrom(10).spanning(10), rangeFrom(-10).to(10)).apply(x),
         EPSILON);
   }
+
+  @ParameterizedTest
+  @CsvSource({"+00.0, -10.0", "+13.0, -05.0", "+19.0, +05.0", "+20.0, +10.0", "+21.0, -10.0"})
+  void testPdfToOperator(double x, double expected) {
+    final ManualPdf subject = new ManualPdf(0.1, 0.2, 0.3, 0.4);
+    assertEquals(
+        expected,
+        subject.pdfToOperator(domainFrom(10).spanning(10), rangeFrom(-10).to(10)).applyAsDouble(x),
+        EPSILON);
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void testSampleCdfMatchesLinearSearch(boolean linear) {
+    ManualPdf.SampleInterpolator interpolator =
+        linear ? ManualPdf.LINEAR_INTERPOLATOR : ManualPdf.MIN_STEP_INTERPOLATOR;
+    double[] distribution = {0.05, 0, 0, 0.3, 0.01, 0.04, 0, 0.5, 0.1, 0};
+    final ManualPdf subject = new ManualPdf(interpolator, distribution);
+    double[] cdf = subject.cdfToArray();
+
+    Random r = new Random(3);
+    for (int s = 0; s < 10_000; s++) {
+      double x = r.nextDouble();
+      int i = 0;
+      while (i < cdf.length && cdf[i] <= x) i++;
+      double min = i > 0 ? cdf[i - 1] : 0, max = i < cdf.length ? cdf[i] : 1;
+      double expected = interpolator.lerp(i, i + 1.0, (x - min) / (max - min)) / cdf.length;
+      assertEquals(expected, subject.sampleCdf(x), EPSILON, "@ " + x);
+    }
+  }
 }
@@ -0,0 +1,56 @@
+package com.brotherhoodgames.pixen.mod.util.stats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import net.minecraft.util.RandomSource;
+import org.junit.jupiter.api.Test;
+
+class RandomVariableTest {
+  private static final List<RandomVariable> VARIABLES =
+      List.of(
+          RandomVariables.constant(4),
+          RandomVariables.linear(2, -1),
+          RandomVariables.normalVariable(3, 10),
+          RandomVariables.confidenceInterval(0.9, 5, 15),
+          RandomVariables.clampedRange(0.25, 0.75),
+          RandomVariables.normalVariable(1, 0).clamp(0.1, 0.3),
+          RandomVariables.range(1, 2)
+              .compositeWith(RandomVariables.normalVariable(0.5, 0))
+              .compositeWith(RandomVariables.constant(7).clamp(0, 5)),
+          RandomVariables.range(0, 1).clamp(0.2, 0.8).clamp(0.5, 2),
+          RandomVariables.constant(1)
+              .compositeWith(RandomVariables.range(0, 3).compositeWith(RandomVariables.constant(2)))
+              .compositeWith(RandomVariables.normalVariable(2, 1).clamp(0.1, 0.3))
+              .clamp(2, 5));
+
+  @Test
+  void testBulkSamplesMatchSingleSamples() {
+    for (RandomVariable variable : VARIABLES) {
+      RandomSource single = RandomSource.create(42), bulk = RandomSource.create(42);
+
+      double[] expected = new double[100];
+      for (int i = 10; i < 90; i++) expected[i] = variable.sample(single);
+      double[] actual = new double[100];
+      variable.sample(bulk, actual, 10, 90);
+
+      assertArrayEquals(expected, actual, variable.toString());
+      assertEquals(single.nextLong(), bulk.nextLong(), variable.toString());
+    }
+  }
+
+  @Test
+  void testCompiledVariablesMatchVariables() {
+    for (RandomVariable variable : VARIABLES) {
+      RandomVariable compiled = variable.compile();
+      for (int i = -100; i <= 100; i++)
+        assertEquals(variable.sample(i / 25.0), compiled.sample(i / 25.0), variable.toString());
+
+      RandomSource graph = RandomSource.create(42), flat = RandomSource.create(42);
+      for (int i = 0; i < 100; i++)
+        assertEquals(variable.sample(graph), compiled.sample(flat), variable.toString());
+      assertEquals(graph.nextLong(), flat.nextLong(), variable.toString());
+    }
+  }
+}